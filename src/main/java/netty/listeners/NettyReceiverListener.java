@@ -13,7 +13,31 @@ import io.netty.channel.ChannelHandlerContext;
 public interface NettyReceiverListener {
     void onReceive(Address sender, DataInput input) throws Exception;
 
+    /**
+     * Invoked on the event loop after it read all messages available on a channel, does nothing by default
+     */
+    default void onReadComplete() {
+    }
+
     void onError(Throwable ex);
 
     void channelWritabilityChanged(PhysicalAddress outbondAddress, boolean writeable);
+
+    /**
+     * Invoked on the event loop of a connection accepted from a member before it is closed as idle
+     *
+     * @return false if messages read from it are still being delivered, in which case it stays open. True by default
+     */
+    default boolean releaseIdle(PhysicalAddress sender) {
+        return true;
+    }
+
+    /**
+     * Invoked on an event loop when a member is found dead by the health checks of its connections, does nothing by
+     * default
+     *
+     * @param reason why the member is considered dead
+     */
+    default void peerUnreachable(PhysicalAddress peer, String reason) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,147 @@
+package netty.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+
+/**
+ * Replacement for {@link io.netty.handler.flush.FlushConsolidationHandler} that consolidates flushes based on the
+ * amount of data pending rather than a fixed count of explicit flushes.
+ * <p>
+ * A flush is passed on immediately once the bytes or messages written since the last flush, or the age of the oldest
+ * unflushed write, exceed the limits of the {@link FlushPolicy}. Otherwise, the flush is deferred until the current
+ * read completes or, outside of a read, to a task that runs once at the end of the current event loop iteration.
+ * This way a lone RPC is flushed in the same loop iteration it was written in, while bursts of small messages
+ * written in the same iteration share a single syscall.
+ */
+public class AdaptiveFlushHandler extends ChannelDuplexHandler {
+    private final FlushPolicy policy;
+    private final Runnable flushTask = this::flushFromTask;
+
+    private ChannelHandlerContext ctx;
+    private boolean readInProgress;
+    private boolean flushScheduled;
+    private boolean flushPending;
+    private int pendingBytes;
+    private int pendingMessages;
+    private long firstPendingNanos;
+
+    public AdaptiveFlushHandler(FlushPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (pendingMessages++ == 0) {
+            firstPendingNanos = System.nanoTime();
+        }
+        if (msg instanceof ByteBuf) {
+            pendingBytes += ((ByteBuf) msg).readableBytes();
+        } else if (msg instanceof ByteBufHolder) {
+            pendingBytes += ((ByteBufHolder) msg).content().readableBytes();
+        } else if (msg instanceof FileRegion) {
+            pendingBytes += ((FileRegion) msg).count();
+        }
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        policy.flushRequested();
+        if (pendingBytes >= policy.maxPendingBytes()) {
+            policy.flushedOnBytes();
+            flushNow(ctx);
+        } else if (pendingMessages >= policy.maxPendingMessages()) {
+            policy.flushedOnMessages();
+            flushNow(ctx);
+        } else if (pendingMessages > 0 && System.nanoTime() - firstPendingNanos >= policy.maxDelayNanos()) {
+            policy.flushedOnDelay();
+            flushNow(ctx);
+        } else {
+            flushPending = true;
+            // During a read the flush happens in channelReadComplete, so no need for a task
+            if (!readInProgress && !flushScheduled) {
+                flushScheduled = true;
+                ctx.channel().eventLoop().execute(flushTask);
+            }
+        }
+    }
+
+    private void flushFromTask() {
+        flushScheduled = false;
+        if (flushPending) {
+            policy.flushedOnLoop();
+            flushNow(ctx);
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        readInProgress = false;
+        if (flushPending) {
+            policy.flushedOnReadComplete();
+            flushNow(ctx);
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // Don't sit on data while the outbound buffer is full
+        if (!ctx.channel().isWritable()) {
+            flushIfPending(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        flushIfPending(ctx);
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfPending(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfPending(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        flushIfPending(ctx);
+    }
+
+    private void flushIfPending(ChannelHandlerContext ctx) {
+        if (flushPending) {
+            policy.flushedOther();
+            flushNow(ctx);
+        }
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        flushPending = false;
+        pendingBytes = 0;
+        pendingMessages = 0;
+        ctx.flush();
+    }
+}
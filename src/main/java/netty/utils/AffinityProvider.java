@@ -0,0 +1,24 @@
+package netty.utils;
+
+import java.util.BitSet;
+
+/**
+ * Pins the calling thread to a set of CPUs. Used by {@link EventLoopPlacement} when an event loop thread starts, so
+ * implementations can rely on a native library such as OpenHFT's Java-Thread-Affinity without the transport
+ * depending on it. Implementations need a public no-arg constructor.
+ */
+public interface AffinityProvider {
+    /**
+     * Restricts the calling thread to the given CPUs
+     *
+     * @throws Exception if the thread couldn't be pinned, in which case it keeps running unpinned
+     */
+    void bindCurrentThread(BitSet cpus) throws Exception;
+
+    /**
+     * @return the CPUs the calling thread may run on, as reported by the OS, or null if unknown
+     */
+    default String currentCpus() {
+        return null;
+    }
+}
@@ -0,0 +1,124 @@
+package netty.utils;
+
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.netty.channel.DefaultSelectStrategyFactory;
+import io.netty.channel.EventLoopTaskQueueFactory;
+import io.netty.channel.SelectStrategy;
+import io.netty.channel.SelectStrategyFactory;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.util.IntSupplier;
+import io.netty.util.concurrent.DefaultEventExecutorChooserFactory;
+import io.netty.util.concurrent.RejectedExecutionHandlers;
+import io.netty.util.concurrent.ThreadPerTaskExecutor;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * Low latency mode of the epoll event loops. Instead of parking in {@code epoll_wait} as soon as there is nothing to
+ * do, each loop keeps polling its sockets and task queue without blocking for up to {@link #spinNanos()}, so a frame
+ * or a write arriving shortly after the last one is handled without the wakeup latency of the kernel. Only once the
+ * loop was idle for that long it parks as usual.
+ * <p>
+ * Every loop burns a core while spinning, so the mode uses a group with few loops of its own. Shared by the worker
+ * loops of a transport, which update its counters.
+ */
+public class BusyPoll {
+    private final long spinNanos;
+    private final int socketBusyPollMicros;
+
+    private final LongAdder spinTime = new LongAdder();
+    private final LongAdder spinHits = new LongAdder();
+    private final LongAdder parks = new LongAdder();
+
+    /**
+     * @param spinNanos max time a loop spins before parking
+     * @param socketBusyPollMicros value of {@code SO_BUSY_POLL} for the sockets, 0 to leave it to the system default
+     */
+    public BusyPoll(long spinNanos, int socketBusyPollMicros) {
+        this.spinNanos = spinNanos;
+        this.socketBusyPollMicros = socketBusyPollMicros;
+    }
+
+    public long spinNanos() {
+        return spinNanos;
+    }
+
+    public int socketBusyPollMicros() {
+        return socketBusyPollMicros;
+    }
+
+    /** Total time all loops spent spinning, i.e. the CPU time the mode costs on top of the regular work */
+    public long spinTimeNanos() {
+        return spinTime.sum();
+    }
+
+    /** Number of times a spinning loop found ready sockets or tasks before parking */
+    public long spinHits() {
+        return spinHits.sum();
+    }
+
+    /** Number of times a loop spun without finding anything to do and parked */
+    public long parks() {
+        return parks.sum();
+    }
+
+    public void reset() {
+        spinTime.reset();
+        spinHits.reset();
+        parks.reset();
+    }
+
+    /**
+     * @param threadFactory creates the threads of the loops, null for Netty's default
+     */
+    public EpollEventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+        // Netty creates the select strategy of a loop right before its task queue, on the same thread
+        ThreadLocal<SpinningSelectStrategy> created = new ThreadLocal<>();
+        SelectStrategyFactory strategies = () -> {
+            SpinningSelectStrategy strategy = new SpinningSelectStrategy();
+            created.set(strategy);
+            return strategy;
+        };
+        EventLoopTaskQueueFactory queues = maxCapacity -> {
+            Queue<Runnable> queue = maxCapacity == Integer.MAX_VALUE ? PlatformDependent.newMpscQueue()
+                  : PlatformDependent.newMpscQueue(maxCapacity);
+            created.get().tasks = queue;
+            created.remove();
+            return queue;
+        };
+        Executor executor = threadFactory != null ? new ThreadPerTaskExecutor(threadFactory) : null;
+        return new EpollEventLoopGroup(threads, executor, DefaultEventExecutorChooserFactory.INSTANCE, strategies,
+              RejectedExecutionHandlers.reject(), queues, null);
+    }
+
+    private final class SpinningSelectStrategy implements SelectStrategy {
+        private final SelectStrategy parking = DefaultSelectStrategyFactory.INSTANCE.newSelectStrategy();
+        // The task queue of the loop, so tasks submitted while spinning end the spin
+        private Queue<Runnable> tasks;
+
+        @Override
+        public int calculateStrategy(IntSupplier selectSupplier, boolean hasTasks) throws Exception {
+            if (hasTasks) {
+                return parking.calculateStrategy(selectSupplier, true);
+            }
+            long start = System.nanoTime();
+            long now = start;
+            do {
+                int ready = selectSupplier.get();
+                if (ready > 0 || !tasks.isEmpty()) {
+                    spinTime.add(System.nanoTime() - start);
+                    spinHits.increment();
+                    return ready;
+                }
+                Thread.onSpinWait();
+                now = System.nanoTime();
+            } while (now - start < spinNanos);
+            spinTime.add(now - start);
+            parks.increment();
+            return SelectStrategy.SELECT;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package netty.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.jgroups.stack.IpAddress;
+
+/**
+ * Estimates the offset between the {@link System#nanoTime()} clock of this JVM and that of each peer, from the
+ * {@link FrameFormat#PING}/{@link FrameFormat#PONG} round trips done by {@link ClockSyncHandler}. The estimate of
+ * the round trip with the lowest RTT is kept, as it has the smallest error, until it is older than
+ * {@link #SAMPLE_LIFETIME_NANOS} to follow clock drift.
+ */
+public class ClockSync {
+    public static final long UNKNOWN = Long.MIN_VALUE;
+    private static final long SAMPLE_LIFETIME_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final long probeIntervalMillis;
+    private final Map<IpAddress, Estimate> estimates = new ConcurrentHashMap<>();
+
+    /**
+     * @param probeIntervalMillis interval at which each connection is probed, 0 to only answer the probes of peers
+     */
+    public ClockSync(long probeIntervalMillis) {
+        this.probeIntervalMillis = probeIntervalMillis;
+    }
+
+    public long probeIntervalMillis() {
+        return probeIntervalMillis;
+    }
+
+    /**
+     * @param sent when the ping was sent, local clock
+     * @param peerReceived when the peer received the ping, peer clock
+     * @param peerSent when the peer sent the pong, peer clock
+     * @param received when the pong was received, local clock
+     */
+    void update(IpAddress peer, long sent, long peerReceived, long peerSent, long received) {
+        long rtt = (received - sent) - (peerSent - peerReceived);
+        long offset = ((sent - peerReceived) + (received - peerSent)) / 2;
+        estimates.compute(peer, (k, current) -> {
+            if (current == null || rtt <= current.rtt || received - current.time > SAMPLE_LIFETIME_NANOS) {
+                return new Estimate(rtt, offset, received);
+            }
+            return current;
+        });
+    }
+
+    /**
+     * @return the value to add to a nanoTime of the peer to get the corresponding local nanoTime, or {@link #UNKNOWN}
+     */
+    public long offset(IpAddress peer) {
+        Estimate estimate = estimates.get(peer);
+        return estimate != null ? estimate.offset : UNKNOWN;
+    }
+
+    /**
+     * @return the round trip time in nanoseconds of the estimate of the peer, the lowest seen recently, or
+     * {@link #UNKNOWN}
+     */
+    public long rtt(IpAddress peer) {
+        Estimate estimate = estimates.get(peer);
+        return estimate != null ? estimate.rtt : UNKNOWN;
+    }
+
+    @Override
+    public String toString() {
+        return estimates.entrySet().stream()
+              .map(e -> String.format("%s: offset=%dus rtt=%dus", e.getKey(),
+                    TimeUnit.NANOSECONDS.toMicros(e.getValue().offset), TimeUnit.NANOSECONDS.toMicros(e.getValue().rtt)))
+              .collect(Collectors.joining("\n"));
+    }
+
+    private static class Estimate {
+        final long rtt;
+        final long offset;
+        final long time;
+
+        Estimate(long rtt, long offset, long time) {
+            this.rtt = rtt;
+            this.offset = offset;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package netty.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.blocks.cs.netty.NettyConnection;
+import org.jgroups.stack.IpAddress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * Answers {@link FrameFormat#PING} control frames and, if {@link ClockSync#probeIntervalMillis()} is set, pings the
+ * peer periodically to estimate its clock offset.
+ */
+public class ClockSyncHandler extends ChannelInboundHandlerAdapter {
+    private final ClockSync clockSync;
+    private ScheduledFuture<?> probe;
+
+    public ClockSyncHandler(ClockSync clockSync) {
+        this.clockSync = clockSync;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        long interval = clockSync.probeIntervalMillis();
+        if (interval > 0) {
+            probe = ctx.executor().scheduleAtFixedRate(() -> ping(ctx), 0, interval, TimeUnit.MILLISECONDS);
+        }
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (probe != null) {
+            probe.cancel(false);
+            probe = null;
+        }
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * Writes a {@link FrameFormat#PING} from the position of the handler, also used by {@link ConnectionHealthHandler}
+     */
+    static void ping(ChannelHandlerContext ctx) {
+        ByteBuf ping = ctx.alloc().buffer(Integer.BYTES + 1 + Long.BYTES);
+        ping.writeInt((1 + Long.BYTES) | FrameFormat.CONTROL);
+        ping.writeByte(FrameFormat.PING);
+        ping.writeLong(System.nanoTime());
+        // A ping failing because the connection is closing isn't worth reporting
+        ctx.writeAndFlush(ping);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        long now = System.nanoTime();
+        if (!(msg instanceof MessageHandler.FlaggedFrame) || (((MessageHandler.FlaggedFrame) msg).flags() & FrameFormat.CONTROL) == 0) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        ByteBuf content = ((MessageHandler.FlaggedFrame) msg).content();
+        byte type = content.getByte(content.readerIndex());
+        if (type == FrameFormat.PING) {
+            try {
+                content.skipBytes(1);
+                long sent = content.readLong();
+                ByteBuf pong = ctx.alloc().buffer(Integer.BYTES + 1 + Long.BYTES * 3);
+                pong.writeInt((1 + Long.BYTES * 3) | FrameFormat.CONTROL);
+                pong.writeByte(FrameFormat.PONG);
+                pong.writeLong(sent);
+                pong.writeLong(now);
+                pong.writeLong(System.nanoTime());
+                ctx.writeAndFlush(pong, ctx.voidPromise());
+            } finally {
+                content.release();
+            }
+        } else if (type == FrameFormat.PONG) {
+            try {
+                content.skipBytes(1);
+                IpAddress peer = ctx.channel().attr(NettyConnection.ADDRESS_ATTRIBUTE).get();
+                if (peer != null) {
+                    clockSync.update(peer, content.readLong(), content.readLong(), content.readLong(), now);
+                }
+            } finally {
+                content.release();
+            }
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package netty.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Switches outbound frames to the {@link CompactFrames} format once the peer announced that it can decode it in its
+ * {@link FrameFormat#HELLO}. Decoding is done by {@link MessageHandler}, as it has to change how the stream is split
+ * into frames right after the {@link FrameFormat#SWITCH_COMPACT}.
+ * <p>
+ * Sits between {@link MessageHandler} and {@link CompressionHandler}, so it sees the peer's HELLO before it is
+ * consumed and encodes the frames after they were compressed.
+ */
+public class CompactFrameHandler extends ChannelDuplexHandler {
+    private final CompactFrames compact;
+    // Only set and accessed from the event loop
+    private CompactFrames.Encoder encoder;
+
+    public CompactFrameHandler(CompactFrames compact) {
+        this.compact = compact;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (encoder == null && compact.enabled() && msg instanceof MessageHandler.FlaggedFrame) {
+            MessageHandler.FlaggedFrame frame = (MessageHandler.FlaggedFrame) msg;
+            ByteBuf content = frame.content();
+            int index = content.readerIndex();
+            if (frame.flags() == FrameFormat.CONTROL && content.getByte(index) == FrameFormat.HELLO
+                  && content.readableBytes() > 2 && (content.getByte(index + 2) & FrameFormat.CAPABILITY_COMPACT) != 0) {
+                ByteBuf switchFrame = ctx.alloc().buffer(Integer.BYTES + 1 + Integer.BYTES);
+                switchFrame.writeInt((1 + Integer.BYTES) | FrameFormat.CONTROL);
+                switchFrame.writeByte(FrameFormat.SWITCH_COMPACT);
+                switchFrame.writeInt(compact.maxFrameSize());
+                ctx.writeAndFlush(switchFrame, ctx.voidPromise());
+                encoder = compact.newEncoder();
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (encoder == null || !(msg instanceof ByteBuf)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        ByteBuf frame = (ByteBuf) msg;
+        ByteBuf delta = null;
+        try {
+            if ((frame.getInt(frame.readerIndex()) & FrameFormat.FLAGS_MASK) == 0 && FrameFormat.isWholeFrame(frame)) {
+                delta = encoder.encode(ctx.alloc(), frame);
+            }
+        } catch (Throwable t) {
+            frame.release();
+            promise.tryFailure(t);
+            return;
+        }
+        if (delta != null) {
+            frame.release();
+            ctx.write(delta, promise);
+        } else {
+            ctx.write(ctx.alloc().buffer(1, 1).writeByte(0), ctx.voidPromise());
+            ctx.write(frame, promise);
+        }
+    }
+}
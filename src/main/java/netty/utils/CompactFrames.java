@@ -0,0 +1,270 @@
+package netty.utils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jgroups.protocols.TP;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.CorruptedFrameException;
+
+/**
+ * Configuration of the compact frame format and the counters it updates. Shared by all channels of a transport.
+ * <p>
+ * Peers announce support in their {@link FrameFormat#HELLO}. Once both do, each side sends a
+ * {@link FrameFormat#SWITCH_COMPACT} control frame, after which every frame it sends starts with a varint:
+ * <ul>
+ *    <li>0: a frame in the regular format follows, used for control frames, compressed frames and frames larger than
+ *    {@link #maxFrameSize()}</li>
+ *    <li>n: a delta frame of n bytes follows: the dictionary slot it was coded against, the varint length of the
+ *    decoded frame and then alternating varint lengths of a run copied from the same offset of the dictionary and
+ *    of a run of literal bytes, followed by those bytes</li>
+ * </ul>
+ * Each connection keeps the last regular frame coded in a slot as its dictionary, one slot for unicast and one for
+ * multicast frames. As consecutive frames share the same layout, the sender address, version, message addresses and
+ * header ids and prefixes are all copied from the dictionary and only take a few bytes after the first frame.
+ * <p>
+ * A connection announcing a max frame size above {@link #MAX_FRAME_SIZE}, or sending a delta frame that can't be
+ * decoded, is closed.
+ */
+public class CompactFrames {
+    /** Largest max frame size either side may use, as each connection keeps two frames of that size per direction */
+    public static final int MAX_FRAME_SIZE = 64 * 1024;
+    static final int SLOTS = 2;
+    // Offset of the JGroups version in a frame body, after the length of the sender's address bytes
+    private static final int VERSION_OFFSET = 1 + Short.BYTES;
+    // Matching runs shorter than this are cheaper to send as literals
+    private static final int MIN_MATCH = 3;
+
+    private final boolean enabled;
+    private final int maxFrameSize;
+
+    private final LongAdder framesEncoded = new LongAdder();
+    private final LongAdder bytesBeforeEncoding = new LongAdder();
+    private final LongAdder bytesAfterEncoding = new LongAdder();
+    private final LongAdder framesDecoded = new LongAdder();
+
+    /**
+     * @param enabled whether to use the compact format with peers supporting it
+     * @param maxFrameSize frames with a larger body are sent in the regular format
+     */
+    public CompactFrames(boolean enabled, int maxFrameSize) {
+        this.enabled = enabled;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public int maxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public long framesEncoded() {
+        return framesEncoded.sum();
+    }
+
+    /** Size of the bodies of the frames that were sent as delta frames, including their 4 byte length field */
+    public long bytesBeforeEncoding() {
+        return bytesBeforeEncoding.sum();
+    }
+
+    /** Size of the delta frames that were sent, including their varint length */
+    public long bytesAfterEncoding() {
+        return bytesAfterEncoding.sum();
+    }
+
+    public long framesDecoded() {
+        return framesDecoded.sum();
+    }
+
+    public void reset() {
+        framesEncoded.reset();
+        bytesBeforeEncoding.reset();
+        bytesAfterEncoding.reset();
+        framesDecoded.reset();
+    }
+
+    Encoder newEncoder() {
+        return new Encoder();
+    }
+
+    Decoder newDecoder(int peerMaxFrameSize) {
+        if (peerMaxFrameSize <= 0 || peerMaxFrameSize > MAX_FRAME_SIZE) {
+            throw new CorruptedFrameException("Peer switched to compact frames of up to " + peerMaxFrameSize
+                  + " bytes");
+        }
+        return new Decoder(peerMaxFrameSize);
+    }
+
+    /**
+     * Delta codes the regular frames sent over a connection, only accessed from its event loop
+     */
+    final class Encoder {
+        private final byte[][] dictionaries = new byte[SLOTS][maxFrameSize];
+        private final int[] dictionaryLengths = new int[SLOTS];
+        private byte[] frame = new byte[maxFrameSize];
+
+        /**
+         * @param in a regular frame including its length field
+         * @return the delta frame including its varint length, or null if the frame is too large
+         */
+        ByteBuf encode(ByteBufAllocator alloc, ByteBuf in) {
+            int length = in.readableBytes() - Integer.BYTES;
+            if (length > maxFrameSize) {
+                return null;
+            }
+            in.getBytes(in.readerIndex() + Integer.BYTES, frame, 0, length);
+            int slot = slot(frame, length);
+            byte[] dictionary = dictionaries[slot];
+            int dictionaryLength = dictionaryLengths[slot];
+
+            int maxVarint = 5;
+            ByteBuf out = alloc.buffer(maxVarint + 1 + maxVarint + length + (length / MIN_MATCH + 1) * 2 * maxVarint);
+            out.writerIndex(maxVarint);
+            out.writeByte(slot);
+            writeVarint(out, length);
+            int common = Math.min(length, dictionaryLength);
+            int i = 0;
+            while (i < length) {
+                int copyStart = i;
+                while (i < common && frame[i] == dictionary[i]) {
+                    i++;
+                }
+                int literalStart = i;
+                while (i < length && !matches(frame, dictionary, i, common)) {
+                    i++;
+                }
+                writeVarint(out, literalStart - copyStart);
+                writeVarint(out, i - literalStart);
+                out.writeBytes(frame, literalStart, i - literalStart);
+            }
+            // Even a frame without matches is sent as a delta frame, so it becomes the dictionary for the next one
+            int bodyLength = out.writerIndex() - maxVarint;
+            int varintLength = varintLength(bodyLength);
+            out.readerIndex(maxVarint - varintLength);
+            int writerIndex = out.writerIndex();
+            out.writerIndex(out.readerIndex());
+            writeVarint(out, bodyLength);
+            out.writerIndex(writerIndex);
+
+            // The frame becomes the dictionary of its slot
+            dictionaries[slot] = frame;
+            dictionaryLengths[slot] = length;
+            frame = dictionary;
+
+            framesEncoded.increment();
+            bytesBeforeEncoding.add(Integer.BYTES + length);
+            bytesAfterEncoding.add(out.readableBytes());
+            return out;
+        }
+    }
+
+    /**
+     * Decodes the delta frames received over a connection, only accessed from its event loop
+     */
+    final class Decoder {
+        private final byte[][] dictionaries;
+        private final int[] dictionaryLengths = new int[SLOTS];
+
+        Decoder(int peerMaxFrameSize) {
+            dictionaries = new byte[SLOTS][peerMaxFrameSize];
+        }
+
+        /**
+         * @param in the body of a delta frame
+         * @return the body of the regular frame
+         */
+        ByteBuf decode(ByteBufAllocator alloc, ByteBuf in) {
+            try {
+                return decodeFrame(alloc, in);
+            } catch (IndexOutOfBoundsException e) {
+                throw new CorruptedFrameException("Truncated delta frame", e);
+            }
+        }
+
+        private ByteBuf decodeFrame(ByteBufAllocator alloc, ByteBuf in) {
+            int slot = in.readUnsignedByte();
+            int length = readVarint(in);
+            if (slot >= SLOTS || length < 0 || length > dictionaries[slot].length) {
+                throw new CorruptedFrameException("Invalid delta frame for slot " + slot + " with length " + length);
+            }
+            byte[] dictionary = dictionaries[slot];
+            int dictionaryLength = dictionaryLengths[slot];
+            ByteBuf out = alloc.heapBuffer(length, length);
+            try {
+                while (out.writerIndex() < length) {
+                    int copy = readVarint(in);
+                    if (copy < 0 || out.writerIndex() + copy > dictionaryLength) {
+                        throw new CorruptedFrameException("Delta frame copies beyond its dictionary");
+                    }
+                    out.writeBytes(dictionary, out.writerIndex(), copy);
+                    int literal = readVarint(in);
+                    if (out.writerIndex() + literal > length) {
+                        throw new CorruptedFrameException("Delta frame literal exceeds the frame length " + length);
+                    }
+                    out.writeBytes(in, literal);
+                }
+                out.getBytes(0, dictionary, 0, length);
+                dictionaryLengths[slot] = length;
+            } catch (Throwable t) {
+                out.release();
+                throw t;
+            }
+            framesDecoded.increment();
+            return out;
+        }
+    }
+
+    // Unicast and multicast frames are coded against different dictionaries as their layout differs
+    private static int slot(byte[] frame, int length) {
+        int flagsOffset = VERSION_OFFSET + (frame[0] & 0xff) + Short.BYTES;
+        return flagsOffset < length && (frame[flagsOffset] & TP.MULTICAST) != 0 ? 1 : 0;
+    }
+
+    private static boolean matches(byte[] frame, byte[] dictionary, int offset, int common) {
+        if (offset + MIN_MATCH > common) {
+            return false;
+        }
+        for (int i = offset; i < offset + MIN_MATCH; i++) {
+            if (frame[i] != dictionary[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void writeVarint(ByteBuf out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarint(ByteBuf in) {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    // A fifth byte shifted bits into the sign, no length or offset is that large
+                    throw new CorruptedFrameException("Varint exceeds " + Integer.MAX_VALUE);
+                }
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("Malformed varint");
+    }
+
+    static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+}
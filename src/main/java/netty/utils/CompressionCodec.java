@@ -0,0 +1,160 @@
+package netty.utils;
+
+import java.nio.ByteBuffer;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdException;
+
+import io.netty.handler.codec.CorruptedFrameException;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * Codecs that can be used to compress frames. The libraries backing them are optional dependencies, so
+ * {@link #isAvailable()} has to be checked before using a codec.
+ */
+public enum CompressionCodec {
+    LZ4(1, "net.jpountz.lz4.LZ4Factory") {
+        @Override
+        int maxCompressedLength(int length) {
+            return Lz4Holder.COMPRESSOR.maxCompressedLength(length);
+        }
+
+        @Override
+        int compress(ByteBuffer src, int srcLength, ByteBuffer dst, int maxDstLength, int level) {
+            return Lz4Holder.COMPRESSOR.compress(src, src.position(), srcLength, dst, dst.position(), maxDstLength);
+        }
+
+        @Override
+        void decompress(ByteBuffer src, int srcLength, ByteBuffer dst, int dstLength) {
+            Lz4Holder.decompress(src, srcLength, dst, dstLength);
+        }
+    },
+    ZSTD(2, "com.github.luben.zstd.Zstd") {
+        @Override
+        boolean requiresDirect() {
+            return true;
+        }
+
+        @Override
+        int maxCompressedLength(int length) {
+            return (int) Zstd.compressBound(length);
+        }
+
+        @Override
+        int compress(ByteBuffer src, int srcLength, ByteBuffer dst, int maxDstLength, int level) {
+            return (int) Zstd.compressDirectByteBuffer(dst, dst.position(), maxDstLength, src, src.position(), srcLength, level);
+        }
+
+        @Override
+        void decompress(ByteBuffer src, int srcLength, ByteBuffer dst, int dstLength) {
+            ZstdHolder.decompress(src, srcLength, dst, dstLength);
+        }
+    };
+
+    private final byte id;
+    private final boolean available;
+
+    CompressionCodec(int id, String requiredClass) {
+        this.id = (byte) id;
+        this.available = isPresent(requiredClass);
+    }
+
+    public byte id() {
+        return id;
+    }
+
+    /** Bit of this codec in the mask advertised by {@link FrameFormat#HELLO} */
+    public int mask() {
+        return 1 << id;
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    boolean requiresDirect() {
+        return false;
+    }
+
+    abstract int maxCompressedLength(int length);
+
+    /**
+     * Compresses srcLength bytes from the position of src into dst, starting at its position
+     * @return the number of compressed bytes
+     */
+    abstract int compress(ByteBuffer src, int srcLength, ByteBuffer dst, int maxDstLength, int level);
+
+    /**
+     * Decompresses srcLength bytes from the position of src into exactly dstLength bytes of dst, starting at its
+     * position
+     * @throws CorruptedFrameException if the bytes aren't a valid frame of this codec of that length
+     */
+    abstract void decompress(ByteBuffer src, int srcLength, ByteBuffer dst, int dstLength);
+
+    public static CompressionCodec fromId(byte id) {
+        for (CompressionCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /** Mask of all codecs that are available in this JVM */
+    public static int availableMask() {
+        int mask = 0;
+        for (CompressionCodec codec : values()) {
+            if (codec.available) {
+                mask |= codec.mask();
+            }
+        }
+        return mask;
+    }
+
+    private static boolean isPresent(String className) {
+        try {
+            Class.forName(className, false, CompressionCodec.class.getClassLoader());
+            return true;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    // Lazily loaded so the enum can be used without zstd on the classpath
+    private static final class ZstdHolder {
+        static void decompress(ByteBuffer src, int srcLength, ByteBuffer dst, int dstLength) {
+            long read;
+            try {
+                read = Zstd.decompressDirectByteBuffer(dst, dst.position(), dstLength, src, src.position(), srcLength);
+            } catch (ZstdException e) {
+                throw new CorruptedFrameException("Malformed Zstd frame", e);
+            }
+            if (read != dstLength) {
+                throw new CorruptedFrameException("Decompressed " + read + " bytes but expected " + dstLength);
+            }
+        }
+    }
+
+    // Lazily loaded so the enum can be used without lz4 on the classpath
+    private static final class Lz4Holder {
+        static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+        // The fast decompressor trusts the lengths in its input, which comes from the network
+        static final LZ4SafeDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().safeDecompressor();
+
+        // Here rather than in the enum constant, whose verification would load LZ4Exception
+        static void decompress(ByteBuffer src, int srcLength, ByteBuffer dst, int dstLength) {
+            int decompressed;
+            try {
+                decompressed = DECOMPRESSOR.decompress(src, src.position(), srcLength, dst, dst.position(), dstLength);
+            } catch (LZ4Exception e) {
+                throw new CorruptedFrameException("Malformed LZ4 frame", e);
+            }
+            if (decompressed != dstLength) {
+                throw new CorruptedFrameException("Decompressed " + decompressed + " bytes but expected " + dstLength);
+            }
+        }
+    }
+}
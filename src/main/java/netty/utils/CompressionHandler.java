@@ -0,0 +1,210 @@
+package netty.utils;
+
+import java.nio.ByteBuffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.CorruptedFrameException;
+
+/**
+ * Compresses outbound frames with a body of at least {@link FrameCompression#threshold()} bytes and decompresses
+ * inbound frames flagged with {@link FrameFormat#COMPRESSED}.
+ * <p>
+ * Compression is negotiated per connection: on connect a side that compresses or has capabilities to announce sends a
+ * {@link FrameFormat#HELLO} control frame with the codecs it is able to decompress, and the other side answers with
+ * its own. Frames are only compressed once the peer announced support for the configured codec. Members running a
+ * version that doesn't know about control frames can't read the HELLO, so with neither compression nor capabilities
+ * configured nothing but regular frames is sent until the peer sent a HELLO itself. Inbound frames are decompressed
+ * into pooled buffers which are passed on just like the frames read from the socket by {@link MessageHandler}.
+ * A compressed frame announcing a body that could never have been sent closes the connection.
+ */
+public class CompressionHandler extends ChannelDuplexHandler {
+    private final FrameCompression compression;
+    private final int capabilities;
+    // Mask of the codecs the peer can decompress, only accessed from the event loop
+    private int peerCodecs;
+    private boolean sentHello;
+    private boolean corrupted;
+
+    /**
+     * @param capabilities the {@link FrameFormat} capabilities to announce in our {@link FrameFormat#HELLO}
+     */
+    public CompressionHandler(FrameCompression compression, int capabilities) {
+        this.compression = compression;
+        this.capabilities = capabilities;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        if (compression.codec() != null || capabilities != 0) {
+            sendHello(ctx);
+        }
+        super.channelActive(ctx);
+    }
+
+    private void sendHello(ChannelHandlerContext ctx) {
+        sentHello = true;
+        ByteBuf hello = ctx.alloc().buffer(Integer.BYTES + 3);
+        hello.writeInt(3 | FrameFormat.CONTROL);
+        hello.writeByte(FrameFormat.HELLO);
+        hello.writeByte(CompressionCodec.availableMask());
+        hello.writeByte(capabilities);
+        ctx.writeAndFlush(hello, ctx.voidPromise());
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof MessageHandler.FlaggedFrame)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        MessageHandler.FlaggedFrame frame = (MessageHandler.FlaggedFrame) msg;
+        ByteBuf content = frame.content();
+        if (corrupted) {
+            // Still in flight from the read that closed the connection
+            content.release();
+            return;
+        }
+        if ((frame.flags() & FrameFormat.CONTROL) != 0 && content.getByte(content.readerIndex()) != FrameFormat.HELLO) {
+            // Some other control frame, let the handlers after us deal with it
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        try {
+            if ((frame.flags() & FrameFormat.CONTROL) != 0) {
+                if (content.readableBytes() < 2) {
+                    corrupt(ctx, new CorruptedFrameException("Received HELLO of " + content.readableBytes()
+                          + " bytes"));
+                    return;
+                }
+                content.skipBytes(1);
+                peerCodecs = content.readUnsignedByte();
+                if (!sentHello) {
+                    // The peer knows about control frames, so it can be told what we can decompress
+                    sendHello(ctx);
+                }
+            } else {
+                ByteBuf decompressed;
+                try {
+                    decompressed = decompress(ctx.alloc(), content);
+                } catch (CorruptedFrameException e) {
+                    corrupt(ctx, e);
+                    return;
+                }
+                try {
+                    ctx.fireChannelRead(new ExposedByteBufInputStream(decompressed, decompressed.readableBytes()));
+                } finally {
+                    decompressed.release();
+                }
+            }
+        } finally {
+            content.release();
+        }
+    }
+
+    private void corrupt(ChannelHandlerContext ctx, CorruptedFrameException e) {
+        corrupted = true;
+        ctx.close();
+        ctx.fireExceptionCaught(e);
+    }
+
+    private ByteBuf decompress(ByteBufAllocator alloc, ByteBuf content) {
+        long start = System.nanoTime();
+        if (content.readableBytes() < 1 + Integer.BYTES) {
+            throw new CorruptedFrameException("Received compressed frame of " + content.readableBytes() + " bytes");
+        }
+        CompressionCodec codec = CompressionCodec.fromId(content.readByte());
+        if (codec == null || !codec.isAvailable()) {
+            throw new CorruptedFrameException("Received frame compressed with unsupported codec " + codec);
+        }
+        int length = content.readInt();
+        if (length < 0 || length > FrameFormat.LENGTH_MASK) {
+            throw new CorruptedFrameException("Received compressed frame with an invalid length of " + length);
+        }
+        int compressedLength = content.readableBytes();
+        ByteBuf src = codec.requiresDirect() ? toDirect(alloc, content) : content;
+        ByteBuf dst = codec.requiresDirect() ? alloc.directBuffer(length, length) : alloc.buffer(length, length);
+        try {
+            codec.decompress(src.nioBuffer(src.readerIndex(), compressedLength), compressedLength,
+                  dst.nioBuffer(0, length), length);
+            dst.writerIndex(length);
+        } catch (Throwable t) {
+            dst.release();
+            throw t;
+        } finally {
+            if (src != content) {
+                src.release();
+            }
+        }
+        compression.decompressed(compressedLength, length, System.nanoTime() - start);
+        return dst;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        CompressionCodec codec = compression.codec();
+        if (codec == null || (peerCodecs & codec.mask()) == 0 || !(msg instanceof ByteBuf)
+              || ((ByteBuf) msg).readableBytes() - Integer.BYTES < compression.threshold()
+              || !FrameFormat.isWholeFrame((ByteBuf) msg)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        ByteBuf frame = (ByteBuf) msg;
+        ByteBuf compressed = compress(ctx.alloc(), codec, frame);
+        if (compressed == null) {
+            ctx.write(frame, promise);
+        } else {
+            frame.release();
+            ctx.write(compressed, promise);
+        }
+    }
+
+    /**
+     * @return the compressed frame, or null if compressing didn't reduce its size
+     */
+    private ByteBuf compress(ByteBufAllocator alloc, CompressionCodec codec, ByteBuf frame) {
+        long start = System.nanoTime();
+        int length = frame.readableBytes() - Integer.BYTES;
+        ByteBuf body = frame.slice(frame.readerIndex() + Integer.BYTES, length);
+        // Composites would be merged into a temporary heap buffer by nioBuffer(), so copy them into a pooled one
+        ByteBuf src = codec.requiresDirect() || body.nioBufferCount() != 1 ? toDirect(alloc, body) : body;
+        int headerLength = Integer.BYTES + 1 + Integer.BYTES;
+        int maxCompressed = codec.maxCompressedLength(length);
+        ByteBuf dst = alloc.directBuffer(headerLength + maxCompressed);
+        try {
+            ByteBuffer dstBuffer = dst.nioBuffer(headerLength, maxCompressed);
+            int compressedLength = codec.compress(src.nioBuffer(src.readerIndex(), length), length, dstBuffer,
+                  maxCompressed, compression.level());
+            if (compressedLength + 1 + Integer.BYTES >= length) {
+                dst.release();
+                compression.notCompressible(System.nanoTime() - start);
+                return null;
+            }
+            dst.writeInt((1 + Integer.BYTES + compressedLength) | FrameFormat.COMPRESSED);
+            dst.writeByte(codec.id());
+            dst.writeInt(length);
+            dst.writerIndex(headerLength + compressedLength);
+            compression.compressed(length, compressedLength, System.nanoTime() - start);
+            return dst;
+        } catch (Throwable t) {
+            dst.release();
+            throw t;
+        } finally {
+            if (src != body) {
+                src.release();
+            }
+        }
+    }
+
+    private static ByteBuf toDirect(ByteBufAllocator alloc, ByteBuf buf) {
+        if (buf.isDirect() && buf.nioBufferCount() == 1) {
+            return buf.retainedSlice();
+        }
+        ByteBuf direct = alloc.directBuffer(buf.readableBytes(), buf.readableBytes());
+        direct.writeBytes(buf, buf.readerIndex(), buf.readableBytes());
+        return direct;
+    }
+}
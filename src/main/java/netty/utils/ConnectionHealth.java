@@ -0,0 +1,177 @@
+package netty.utils;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.jgroups.stack.IpAddress;
+
+/**
+ * Detects members whose host died without closing their connections, long before the failure detection protocols
+ * would. Every {@link #checkIntervalMillis()} each {@link ConnectionHealthHandler} pings its connection if nothing was
+ * read from it since the last check, and a member none of whose connections read a frame, including the answers to
+ * the pings, for {@link #timeoutMillis()} is considered dead. On epoll a connection whose sent data wasn't
+ * acknowledged by the kernel of the member for that long is dead as well, which a member merely slow to read doesn't
+ * cause, as its kernel still acknowledges.
+ * <p>
+ * Also holds the TCP settings that let the kernel detect dead connections, applied by the native transports.
+ */
+public class ConnectionHealth {
+    private final long checkIntervalMillis;
+    private final long timeoutMillis;
+    private final int tcpUserTimeoutMillis;
+    private final int keepAliveIdleSeconds;
+    private final int keepAliveIntervalSeconds;
+    private final int keepAliveCount;
+    private final Map<IpAddress, Peer> peers = new ConcurrentHashMap<>();
+    private final LongAdder pingsSent = new LongAdder();
+    private final LongAdder peersUnreachable = new LongAdder();
+
+    /**
+     * @param checkIntervalMillis interval at which connections are checked, 0 to not check them
+     * @param timeoutMillis time after which a silent member is considered dead
+     * @param tcpUserTimeoutMillis {@code TCP_USER_TIMEOUT}, 0 for the system default
+     * @param keepAliveIdleSeconds idle time before the first TCP keepalive probe, 0 to not enable keepalive
+     * @param keepAliveIntervalSeconds time between keepalive probes, 0 for the system default
+     * @param keepAliveCount number of unanswered keepalive probes after which the connection is closed, 0 for the
+     *                       system default
+     */
+    public ConnectionHealth(long checkIntervalMillis, long timeoutMillis, int tcpUserTimeoutMillis,
+                            int keepAliveIdleSeconds, int keepAliveIntervalSeconds, int keepAliveCount) {
+        if (checkIntervalMillis > 0 && timeoutMillis <= checkIntervalMillis) {
+            throw new IllegalArgumentException("The timeout (" + timeoutMillis + " ms) has to be longer than the " +
+                  "check interval (" + checkIntervalMillis + " ms)");
+        }
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.tcpUserTimeoutMillis = tcpUserTimeoutMillis;
+        this.keepAliveIdleSeconds = keepAliveIdleSeconds;
+        this.keepAliveIntervalSeconds = keepAliveIntervalSeconds;
+        this.keepAliveCount = keepAliveCount;
+    }
+
+    public boolean isChecking() {
+        return checkIntervalMillis > 0;
+    }
+
+    public long checkIntervalMillis() {
+        return checkIntervalMillis;
+    }
+
+    public long timeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public int tcpUserTimeoutMillis() {
+        return tcpUserTimeoutMillis;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAliveIdleSeconds > 0;
+    }
+
+    public int keepAliveIdleSeconds() {
+        return keepAliveIdleSeconds;
+    }
+
+    public int keepAliveIntervalSeconds() {
+        return keepAliveIntervalSeconds;
+    }
+
+    public int keepAliveCount() {
+        return keepAliveCount;
+    }
+
+    /** Number of pings sent over connections nothing was read from */
+    public long pingsSent() {
+        return pingsSent.sum();
+    }
+
+    /** Number of times a member was considered dead */
+    public long peersUnreachable() {
+        return peersUnreachable.sum();
+    }
+
+    public void reset() {
+        pingsSent.reset();
+        peersUnreachable.reset();
+    }
+
+    void pingSent() {
+        pingsSent.increment();
+    }
+
+    /**
+     * Invoked by the check of a connection to the peer
+     *
+     * @param lastRead nanoTime of the last frame read from the connection
+     * @return whether the peer just became unreachable, i.e. none of its connections read a frame for the timeout.
+     * It is only reported once, until a frame is read from it again
+     */
+    boolean check(IpAddress peer, long lastRead, long now) {
+        Peer state = peers.computeIfAbsent(peer, p -> new Peer(lastRead));
+        synchronized (state) {
+            if (lastRead - state.lastRead > 0) {
+                state.lastRead = lastRead;
+                state.unreachable = false;
+            }
+            if (state.unreachable || now - state.lastRead < TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) {
+                return false;
+            }
+            return unreachable(state);
+        }
+    }
+
+    /**
+     * Invoked when a connection to the peer is dead for another reason than silence
+     *
+     * @return whether the peer just became unreachable, see {@link #check(IpAddress, long, long)}
+     */
+    boolean dead(IpAddress peer, long now) {
+        Peer state = peers.computeIfAbsent(peer, p -> new Peer(now));
+        synchronized (state) {
+            return !state.unreachable && unreachable(state);
+        }
+    }
+
+    private boolean unreachable(Peer state) {
+        state.unreachable = true;
+        peersUnreachable.increment();
+        return true;
+    }
+
+    /**
+     * Forgets the members that left
+     */
+    public void retainAll(Collection<?> members) {
+        peers.keySet().retainAll(members);
+    }
+
+    @Override
+    public String toString() {
+        long now = System.nanoTime();
+        return peers.entrySet().stream()
+              .map(e -> {
+                  Peer state = e.getValue();
+                  synchronized (state) {
+                      return String.format("%s: last read %d ms ago%s", e.getKey(),
+                            TimeUnit.NANOSECONDS.toMillis(now - state.lastRead),
+                            state.unreachable ? ", unreachable" : "");
+                  }
+              })
+              .collect(Collectors.joining("\n"));
+    }
+
+    private static class Peer {
+        // Of all connections to the peer
+        long lastRead;
+        boolean unreachable;
+
+        Peer(long lastRead) {
+            this.lastRead = lastRead;
+        }
+    }
+}
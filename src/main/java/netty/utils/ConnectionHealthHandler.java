@@ -0,0 +1,115 @@
+package netty.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.blocks.cs.netty.NettyConnection;
+import org.jgroups.stack.IpAddress;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.epoll.EpollTcpInfo;
+import io.netty.util.concurrent.ScheduledFuture;
+import netty.listeners.NettyReceiverListener;
+
+/**
+ * Checks the health of its connection every {@link ConnectionHealth#checkIntervalMillis()}, see
+ * {@link ConnectionHealth}. Sits in front of {@link ClockSyncHandler}, so the answers to its pings count as frames
+ * read, and reports a member found dead to the {@link NettyReceiverListener}.
+ */
+public class ConnectionHealthHandler extends ChannelInboundHandlerAdapter {
+    private final ConnectionHealth health;
+    private final NettyReceiverListener receiver;
+    private ScheduledFuture<?> check;
+    private boolean read;
+    private long lastRead;
+    // Reused by every check of an epoll connection
+    private EpollTcpInfo tcpInfo;
+    // Whether data sent was unacknowledged at the last check, and since when
+    private boolean unacked;
+    private long unackedSince;
+
+    public ConnectionHealthHandler(ConnectionHealth health, NettyReceiverListener receiver) {
+        this.health = health;
+        this.receiver = receiver;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        lastRead = System.nanoTime();
+        long interval = health.checkIntervalMillis();
+        check = ctx.executor().scheduleAtFixedRate(() -> check(ctx), interval, interval, TimeUnit.MILLISECONDS);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (check != null) {
+            check.cancel(false);
+            check = null;
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        // The time is only taken by the next check
+        read = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    private void check(ChannelHandlerContext ctx) {
+        long now = System.nanoTime();
+        if (read) {
+            read = false;
+            lastRead = now;
+        } else {
+            ClockSyncHandler.ping(ctx);
+            health.pingSent();
+        }
+        Channel ch = ctx.channel();
+        IpAddress peer = ch.attr(NettyConnection.ADDRESS_ATTRIBUTE).get();
+        if (peer == null) {
+            // Accepted, but the member didn't send a message yet
+            return;
+        }
+        if (health.check(peer, lastRead, now)) {
+            unreachable(peer, String.format("nothing was read from it for %d ms", health.timeoutMillis()));
+        } else if (isUnacknowledged(ch, now) && health.dead(peer, now)) {
+            unreachable(peer, String.format("data sent to it wasn't acknowledged for %d ms", health.timeoutMillis()));
+        }
+    }
+
+    private void unreachable(IpAddress peer, String reason) {
+        TransportEvents.PeerUnreachable event = new TransportEvents.PeerUnreachable();
+        if (event.isEnabled()) {
+            event.peer = peer.toString();
+            event.reason = reason;
+            event.commit();
+        }
+        receiver.peerUnreachable(peer, reason);
+    }
+
+    // Whether data sent over an epoll connection wasn't acknowledged for the timeout. The last ACK alone doesn't tell,
+    // as after an idle period it is old by the time new data is sent
+    private boolean isUnacknowledged(Channel ch, long now) {
+        if (!(ch instanceof EpollSocketChannel) || !ch.isActive()) {
+            return false;
+        }
+        if (tcpInfo == null) {
+            tcpInfo = new EpollTcpInfo();
+        }
+        ((EpollSocketChannel) ch).tcpInfo(tcpInfo);
+        if (tcpInfo.unacked() == 0) {
+            unacked = false;
+            return false;
+        }
+        if (!unacked) {
+            unacked = true;
+            unackedSince = now;
+        }
+        long stalled = Math.min(now - unackedSince, TimeUnit.MILLISECONDS.toNanos(tcpInfo.lastAckRecv()));
+        return stalled >= TimeUnit.MILLISECONDS.toNanos(health.timeoutMillis());
+    }
+}
@@ -0,0 +1,87 @@
+package netty.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+/**
+ * Measures how responsive the event loops of a group are. Each loop runs a probe at a fixed rate, recording how late
+ * it ran compared to its deadline, which is the time any task submitted to that loop had to wait as well.
+ */
+public class EventLoopMetrics {
+    private final List<Probe> probes = new ArrayList<>();
+
+    public EventLoopMetrics(long intervalMillis, EventLoopGroup... groups) {
+        long interval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        for (EventLoopGroup group : groups) {
+            for (EventExecutor executor : group) {
+                probes.add(new Probe(executor, interval));
+            }
+        }
+    }
+
+    public void stop() {
+        probes.forEach(p -> p.future.cancel(false));
+    }
+
+    /** Number of tasks waiting to be run by all loops */
+    public int pendingTasks() {
+        return probes.stream().mapToInt(Probe::pendingTasks).sum();
+    }
+
+    public long maxLatencyNanos() {
+        return probes.stream().mapToLong(p -> p.maxLatency).max().orElse(0);
+    }
+
+    public void reset() {
+        probes.forEach(p -> p.maxLatency = 0);
+    }
+
+    @Override
+    public String toString() {
+        return probes.stream().map(Probe::toString).collect(Collectors.joining("\n"));
+    }
+
+    private static class Probe implements Runnable {
+        private final EventExecutor executor;
+        private final long interval;
+        private final ScheduledFuture<?> future;
+        private long deadline;
+        private volatile long lastLatency;
+        private volatile long maxLatency;
+
+        Probe(EventExecutor executor, long interval) {
+            this.executor = executor;
+            this.interval = interval;
+            this.deadline = System.nanoTime() + interval;
+            this.future = executor.scheduleAtFixedRate(this, interval, interval, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run() {
+            long latency = Math.max(0, System.nanoTime() - deadline);
+            deadline += interval;
+            lastLatency = latency;
+            if (latency > maxLatency) {
+                maxLatency = latency;
+            }
+        }
+
+        int pendingTasks() {
+            return executor instanceof SingleThreadEventExecutor ? ((SingleThreadEventExecutor) executor).pendingTasks() : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: pending tasks=%d latency=%dus max latency=%dus",
+                  executor.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(executor)),
+                  pendingTasks(), TimeUnit.NANOSECONDS.toMicros(lastLatency), TimeUnit.NANOSECONDS.toMicros(maxLatency));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package netty.utils;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Places the threads of an event loop group on CPUs. Each loop is pinned to a single CPU of the configured set in
+ * turn, when its thread starts, so it stays on one core and NUMA node together with the arena of the allocator it
+ * first allocated from. Without CPUs the threads aren't pinned, but where they may run is still recorded.
+ */
+public class EventLoopPlacement {
+    private final String group;
+    private final int[] cpus;
+    private final AffinityProvider provider;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    // Thread name -> where it runs
+    private final Map<String, String> placements = new ConcurrentSkipListMap<>();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param group name of the group, prefix of the names of its threads
+     * @param cpus CPUs to pin the loops to, empty to leave them unpinned
+     */
+    public EventLoopPlacement(String group, BitSet cpus, AffinityProvider provider) {
+        this.group = group;
+        this.cpus = cpus.stream().toArray();
+        this.provider = provider;
+    }
+
+    public ThreadFactory threadFactory() {
+        return new DefaultThreadFactory(group) {
+            @Override
+            public Thread newThread(Runnable r) {
+                int loop = nextLoop.getAndIncrement();
+                return super.newThread(() -> {
+                    place(loop);
+                    r.run();
+                });
+            }
+        };
+    }
+
+    /** Number of loops that couldn't be pinned */
+    public long failures() {
+        return failures.sum();
+    }
+
+    private void place(int loop) {
+        String placement;
+        if (cpus.length == 0) {
+            placement = "unpinned";
+        } else {
+            int cpu = cpus[loop % cpus.length];
+            BitSet target = new BitSet();
+            target.set(cpu);
+            try {
+                provider.bindCurrentThread(target);
+                placement = "pinned to " + cpu;
+            } catch (Exception e) {
+                failures.increment();
+                placement = "failed to pin to " + cpu + ": " + e.getMessage();
+            }
+        }
+        String allowed = provider.currentCpus();
+        placements.put(Thread.currentThread().getName(), allowed != null ? placement + ", runs on " + allowed : placement);
+    }
+
+    @Override
+    public String toString() {
+        return placements.entrySet().stream().map(e -> e.getKey() + ": " + e.getValue())
+              .collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * @param list CPUs in the format of {@code taskset -c}, e.g. {@code 0-7,16-23}, or null
+     */
+    public static BitSet parseCpuList(String list) {
+        BitSet cpus = new BitSet();
+        if (list == null || list.isBlank()) {
+            return cpus;
+        }
+        for (String range : list.split(",")) {
+            String[] bounds = range.trim().split("-");
+            int from = Integer.parseInt(bounds[0].trim());
+            int to = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : from;
+            if (bounds.length > 2 || from < 0 || to < from) {
+                throw new IllegalArgumentException("Invalid CPU range " + range + " in " + list);
+            }
+            cpus.set(from, to + 1);
+        }
+        return cpus;
+    }
+
+    public static String toCpuList(BitSet cpus) {
+        StringBuilder sb = new StringBuilder();
+        for (int from = cpus.nextSetBit(0); from >= 0; from = cpus.nextSetBit(from + 1)) {
+            int to = cpus.nextClearBit(from) - 1;
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(from);
+            if (to > from) {
+                sb.append('-').append(to);
+            }
+            from = to;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,130 @@
+package netty.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thresholds used by {@link AdaptiveFlushHandler} to decide when consolidated flushes have to hit the socket, together
+ * with counters of the decisions that were made. A single instance is shared by all channels of a transport, so the
+ * counters are {@link LongAdder}s that are only summed up when read.
+ */
+public class FlushPolicy {
+    private final int maxPendingBytes;
+    private final int maxPendingMessages;
+    private final long maxDelayNanos;
+
+    private final LongAdder flushRequests = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder bytesFlushes = new LongAdder();
+    private final LongAdder messagesFlushes = new LongAdder();
+    private final LongAdder delayFlushes = new LongAdder();
+    private final LongAdder loopFlushes = new LongAdder();
+    private final LongAdder readCompleteFlushes = new LongAdder();
+
+    /**
+     * @param maxPendingBytes flush as soon as this many bytes were written since the last flush
+     * @param maxPendingMessages flush as soon as this many messages were written since the last flush
+     * @param maxDelayMicros flush as soon as the oldest unflushed write is older than this
+     */
+    public FlushPolicy(int maxPendingBytes, int maxPendingMessages, long maxDelayMicros) {
+        if (maxPendingBytes <= 0 || maxPendingMessages <= 0 || maxDelayMicros < 0) {
+            throw new IllegalArgumentException("Flush thresholds must be positive: bytes=" + maxPendingBytes +
+                  ", messages=" + maxPendingMessages + ", delay=" + maxDelayMicros);
+        }
+        this.maxPendingBytes = maxPendingBytes;
+        this.maxPendingMessages = maxPendingMessages;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+    }
+
+    public int maxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    public int maxPendingMessages() {
+        return maxPendingMessages;
+    }
+
+    public long maxDelayNanos() {
+        return maxDelayNanos;
+    }
+
+    void flushRequested() {
+        flushRequests.increment();
+    }
+
+    void flushedOnBytes() {
+        bytesFlushes.increment();
+        flushes.increment();
+    }
+
+    void flushedOnMessages() {
+        messagesFlushes.increment();
+        flushes.increment();
+    }
+
+    void flushedOnDelay() {
+        delayFlushes.increment();
+        flushes.increment();
+    }
+
+    void flushedOnLoop() {
+        loopFlushes.increment();
+        flushes.increment();
+    }
+
+    void flushedOnReadComplete() {
+        readCompleteFlushes.increment();
+        flushes.increment();
+    }
+
+    void flushedOther() {
+        flushes.increment();
+    }
+
+    /** Number of flushes requested by writers */
+    public long flushRequests() {
+        return flushRequests.sum();
+    }
+
+    /** Number of flushes actually passed on to the socket */
+    public long flushes() {
+        return flushes.sum();
+    }
+
+    public long bytesFlushes() {
+        return bytesFlushes.sum();
+    }
+
+    public long messagesFlushes() {
+        return messagesFlushes.sum();
+    }
+
+    public long delayFlushes() {
+        return delayFlushes.sum();
+    }
+
+    public long loopFlushes() {
+        return loopFlushes.sum();
+    }
+
+    public long readCompleteFlushes() {
+        return readCompleteFlushes.sum();
+    }
+
+    public void reset() {
+        flushRequests.reset();
+        flushes.reset();
+        bytesFlushes.reset();
+        messagesFlushes.reset();
+        delayFlushes.reset();
+        loopFlushes.reset();
+        readCompleteFlushes.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("flush requests=%d flushes=%d (bytes=%d messages=%d delay=%d loop=%d read complete=%d)",
+              flushRequests(), flushes(), bytesFlushes(), messagesFlushes(), delayFlushes(), loopFlushes(),
+              readCompleteFlushes());
+    }
+}
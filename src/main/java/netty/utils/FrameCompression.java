@@ -0,0 +1,123 @@
+package netty.utils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Configuration of the frame compression done by {@link CompressionHandler} and the counters it updates. Shared by
+ * all channels of a transport.
+ */
+public class FrameCompression {
+    private final CompressionCodec codec;
+    private final int threshold;
+    private final int level;
+
+    private final LongAdder framesCompressed = new LongAdder();
+    private final LongAdder framesNotCompressible = new LongAdder();
+    private final LongAdder bytesBeforeCompression = new LongAdder();
+    private final LongAdder bytesAfterCompression = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+    private final LongAdder framesDecompressed = new LongAdder();
+    private final LongAdder bytesBeforeDecompression = new LongAdder();
+    private final LongAdder bytesAfterDecompression = new LongAdder();
+    private final LongAdder decompressionNanos = new LongAdder();
+
+    /**
+     * @param codec the codec used to compress outbound frames, or null to not compress
+     * @param threshold frames with a body smaller than this are never compressed
+     * @param level the compression level, only used by codecs supporting it
+     */
+    public FrameCompression(CompressionCodec codec, int threshold, int level) {
+        if (codec != null && !codec.isAvailable()) {
+            throw new IllegalArgumentException("Compression codec " + codec + " is not available on the classpath");
+        }
+        this.codec = codec;
+        this.threshold = threshold;
+        this.level = level;
+    }
+
+    public CompressionCodec codec() {
+        return codec;
+    }
+
+    public int threshold() {
+        return threshold;
+    }
+
+    public int level() {
+        return level;
+    }
+
+    void compressed(int before, int after, long nanos) {
+        framesCompressed.increment();
+        bytesBeforeCompression.add(before);
+        bytesAfterCompression.add(after);
+        compressionNanos.add(nanos);
+    }
+
+    void notCompressible(long nanos) {
+        framesNotCompressible.increment();
+        compressionNanos.add(nanos);
+    }
+
+    void decompressed(int before, int after, long nanos) {
+        framesDecompressed.increment();
+        bytesBeforeDecompression.add(before);
+        bytesAfterDecompression.add(after);
+        decompressionNanos.add(nanos);
+    }
+
+    public long framesCompressed() {
+        return framesCompressed.sum();
+    }
+
+    /** Frames above the threshold that were sent uncompressed as compressing didn't make them smaller */
+    public long framesNotCompressible() {
+        return framesNotCompressible.sum();
+    }
+
+    public long framesDecompressed() {
+        return framesDecompressed.sum();
+    }
+
+    /** Compressed size divided by the original size of all compressed frames, 1 if nothing was compressed */
+    public double compressionRatio() {
+        long before = bytesBeforeCompression.sum();
+        return before == 0 ? 1 : bytesAfterCompression.sum() / (double) before;
+    }
+
+    public long bytesSavedOnSend() {
+        return bytesBeforeCompression.sum() - bytesAfterCompression.sum();
+    }
+
+    public long bytesSavedOnReceive() {
+        return bytesAfterDecompression.sum() - bytesBeforeDecompression.sum();
+    }
+
+    public long compressionNanos() {
+        return compressionNanos.sum();
+    }
+
+    public long decompressionNanos() {
+        return decompressionNanos.sum();
+    }
+
+    public void reset() {
+        framesCompressed.reset();
+        framesNotCompressible.reset();
+        bytesBeforeCompression.reset();
+        bytesAfterCompression.reset();
+        compressionNanos.reset();
+        framesDecompressed.reset();
+        bytesBeforeDecompression.reset();
+        bytesAfterDecompression.reset();
+        decompressionNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("codec=%s threshold=%d compressed=%d not compressible=%d ratio=%.3f compression time=%dus " +
+                    "decompressed=%d decompression time=%dus", codec, threshold, framesCompressed(),
+              framesNotCompressible(), compressionRatio(), compressionNanos() / 1000, framesDecompressed(),
+              decompressionNanos() / 1000);
+    }
+}
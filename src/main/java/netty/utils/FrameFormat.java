@@ -0,0 +1,58 @@
+package netty.utils;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Layout of the 4 byte length field that prefixes every frame. The two highest bits are used as flags, so a frame
+ * body can be at most {@link #LENGTH_MASK} bytes long.
+ * <ul>
+ *    <li>{@link #COMPRESSED}: the body is a codec id, the uncompressed length (int) and the compressed bytes</li>
+ *    <li>{@link #CONTROL}: the body is a control type followed by its data, and is consumed by the pipeline</li>
+ * </ul>
+ * Frames without any flag set are regular messages, prefixed with the sender address. Once a peer sent
+ * {@link #SWITCH_COMPACT}, the frames that follow it use the format described in {@link CompactFrames} instead.
+ */
+public final class FrameFormat {
+    public static final int COMPRESSED = 1 << 31;
+    public static final int CONTROL = 1 << 30;
+    public static final int FLAGS_MASK = COMPRESSED | CONTROL;
+    public static final int LENGTH_MASK = ~FLAGS_MASK;
+
+    /**
+     * Control frame sent by both sides on connect, followed by a byte with the mask of codecs we can decompress and a
+     * byte with our capabilities. Older peers only send the former
+     */
+    public static final byte HELLO = 1;
+    /** Control frame followed by the sender's nanoTime, answered with a {@link #PONG} */
+    public static final byte PING = 2;
+    /** Control frame followed by the nanoTime of the {@link #PING}, and when the peer received it and replied */
+    public static final byte PONG = 3;
+    /** Control frame followed by the sender's maximum delta frame size (int), see {@link CompactFrames} */
+    public static final byte SWITCH_COMPACT = 4;
+    /**
+     * Control frame sent on connect by members with additional addresses, followed by the index of the path the
+     * connection belongs to (byte, 0 for the primary connection), the sender's primary address, the number of its
+     * additional addresses (byte) and those addresses, see {@link Striping}. Answered in kind on the primary connection
+     */
+    public static final byte PATHS = 5;
+
+    /** Capability announced in the {@link #HELLO}: the peer can decode {@link CompactFrames} */
+    public static final int CAPABILITY_COMPACT = 1;
+
+    private FrameFormat() { }
+
+    /**
+     * @return whether the buffer holds a whole frame, rather than the start of one whose body follows in a
+     * {@link io.netty.channel.FileRegion}
+     */
+    public static boolean isWholeFrame(ByteBuf frame) {
+        return (frame.getInt(frame.readerIndex()) & LENGTH_MASK) == frame.readableBytes() - Integer.BYTES;
+    }
+
+    /**
+     * @return the size of the frame starting in the buffer, including its length field
+     */
+    public static int frameSize(ByteBuf frame) {
+        return Integer.BYTES + (frame.getInt(frame.readerIndex()) & LENGTH_MASK);
+    }
+}
@@ -0,0 +1,106 @@
+package netty.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledDirectByteBuf;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * Assembles frames of at least {@link #threshold()} bytes that span several reads in memory-mapped temporary files
+ * instead of pooled buffers, so multi-GB transfers, e.g. of {@link org.jgroups.FileRegionMessage}s, are backed by
+ * the page cache rather than direct memory. Shared by all channels of a transport.
+ * <p>
+ * The file is deleted as soon as it is mapped, and unmapped once the frame and all slices of it were released. The
+ * payload of a message received in it is a slice that is never copied, so the mapping backs a regular message, e.g.
+ * of a state transfer, until the message is garbage collected, see {@link org.jgroups.util.PayloadCleaner}.
+ */
+public class FrameSpill {
+    private final int threshold;
+    private final Path directory;
+
+    private final LongAdder framesSpilled = new LongAdder();
+    private final LongAdder bytesSpilled = new LongAdder();
+    private final LongAdder spillFailures = new LongAdder();
+
+    /**
+     * @param threshold frames with at least this many bytes are spilled, 0 disables spilling
+     * @param directory where to create the files, null for the default temporary directory
+     */
+    public FrameSpill(int threshold, Path directory) {
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    public int threshold() {
+        return threshold;
+    }
+
+    public long framesSpilled() {
+        return framesSpilled.sum();
+    }
+
+    public long bytesSpilled() {
+        return bytesSpilled.sum();
+    }
+
+    /** Number of frames that couldn't be spilled, e.g. because the disk was full, and were assembled in memory */
+    public long spillFailures() {
+        return spillFailures.sum();
+    }
+
+    public void reset() {
+        framesSpilled.reset();
+        bytesSpilled.reset();
+        spillFailures.reset();
+    }
+
+    /**
+     * @return a buffer with a capacity of {@code length} bytes to assemble a frame in
+     */
+    ByteBuf allocate(ByteBufAllocator alloc, int length) {
+        if (threshold <= 0 || length < threshold) {
+            return alloc.buffer(length, length);
+        }
+        try {
+            Path file = directory != null ? Files.createTempFile(directory, "jgroups-netty-", ".frame")
+                  : Files.createTempFile("jgroups-netty-", ".frame");
+            MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                  StandardOpenOption.DELETE_ON_CLOSE)) {
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            }
+            framesSpilled.increment();
+            bytesSpilled.add(length);
+            return new MappedFrame(alloc, mapped);
+        } catch (IOException | UnsupportedOperationException e) {
+            spillFailures.increment();
+            return alloc.buffer(length, length);
+        }
+    }
+
+    private static final class MappedFrame extends UnpooledDirectByteBuf {
+        private final ByteBuffer mapped;
+
+        MappedFrame(ByteBufAllocator alloc, ByteBuffer mapped) {
+            super(alloc, mapped, mapped.capacity());
+            this.mapped = mapped;
+            clear();
+        }
+
+        @Override
+        protected void deallocate() {
+            super.deallocate();
+            // Don't wait for the GC to unmap it
+            PlatformDependent.freeDirectBuffer(mapped);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package netty.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.blocks.cs.netty.NettyConnection;
+import org.jgroups.stack.IpAddress;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import netty.listeners.NettyReceiverListener;
+
+/**
+ * Closes its connection once no frame was read from or written to it for {@link IdleConnections#expireMillis()}.
+ * Sits behind {@link ClockSyncHandler}, so its pings don't keep a connection open. A connection still isn't closed
+ * while writes are pending, which also keeps slowly draining ones open, while reads are paused because of the delivery
+ * backlog, or while messages read from it are being delivered; it is checked again after another period.
+ */
+public class IdleConnectionHandler extends IdleStateHandler {
+    private final IdleConnections idleConnections;
+    private final NettyReceiverListener receiver;
+
+    public IdleConnectionHandler(IdleConnections idleConnections, NettyReceiverListener receiver) {
+        super(true, 0, 0, idleConnections.expireMillis(), TimeUnit.MILLISECONDS);
+        this.idleConnections = idleConnections;
+        this.receiver = receiver;
+    }
+
+    @Override
+    protected void channelIdle(ChannelHandlerContext ctx, IdleStateEvent evt) throws Exception {
+        Channel ch = ctx.channel();
+        IpAddress peer = ch.attr(NettyConnection.ADDRESS_ATTRIBUTE).get();
+        boolean inbound = ch.parent() != null;
+        if (evt.state() == IdleState.ALL_IDLE && isReapable(ch, peer, inbound)) {
+            idleConnections.reaped(peer, inbound);
+            ch.close();
+        }
+        super.channelIdle(ctx, evt);
+    }
+
+    private boolean isReapable(Channel ch, IpAddress peer, boolean inbound) {
+        if (NettyConnection.pendingOutboundBytes(ch) > 0 || !ch.config().isAutoRead()) {
+            return false;
+        }
+        // Regular messages are read from the connections members opened, and delivered on their event loops
+        return peer == null || !inbound || receiver.releaseIdle(peer);
+    }
+}
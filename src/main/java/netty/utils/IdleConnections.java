@@ -0,0 +1,74 @@
+package netty.utils;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jgroups.stack.IpAddress;
+
+/**
+ * Closes connections to members that neither sent nor received a frame for {@link #expireMillis()}, so members of
+ * large clusters that rarely talk to each other don't keep a pair of sockets, their buffers and Netty's outbound
+ * buffers open for every other member. A closed connection is opened again by the next message sent over it.
+ * <p>
+ * Shared by all connections of a transport, whose {@link IdleConnectionHandler}s update its counters.
+ */
+public class IdleConnections {
+    private final long expireMillis;
+    // Peers whose last connection was closed as idle, in either direction
+    private final Set<IpAddress> reapedOutbound = ConcurrentHashMap.newKeySet();
+    private final Set<IpAddress> reapedInbound = ConcurrentHashMap.newKeySet();
+    private final LongAdder reaped = new LongAdder();
+    private final LongAdder reopened = new LongAdder();
+
+    /**
+     * @param expireMillis time a connection may be idle before it is closed
+     */
+    public IdleConnections(long expireMillis) {
+        this.expireMillis = expireMillis;
+    }
+
+    public long expireMillis() {
+        return expireMillis;
+    }
+
+    /** Number of connections closed as idle */
+    public long reaped() {
+        return reaped.sum();
+    }
+
+    /** Number of connections opened again after the previous one to or from the same member was closed as idle */
+    public long reopened() {
+        return reopened.sum();
+    }
+
+    public void reset() {
+        reaped.reset();
+        reopened.reset();
+    }
+
+    void reaped(IpAddress peer, boolean inbound) {
+        reaped.increment();
+        if (peer != null) {
+            (inbound ? reapedInbound : reapedOutbound).add(peer);
+        }
+    }
+
+    /**
+     * Invoked once a connection is registered as the one to or from the peer
+     */
+    public void connected(IpAddress peer, boolean inbound) {
+        if ((inbound ? reapedInbound : reapedOutbound).remove(peer)) {
+            reopened.increment();
+        }
+    }
+
+    /**
+     * Forgets the members that left, whose connections won't be opened again
+     */
+    public void retainAll(Collection<?> members) {
+        reapedOutbound.retainAll(members);
+        reapedInbound.retainAll(members);
+    }
+}
@@ -1,23 +1,237 @@
 package netty.utils;
 
-import java.util.List;
-
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.CorruptedFrameException;
+
+/**
+ * Length field based frame decoder that avoids the cumulation copies done by
+ * {@link io.netty.handler.codec.ByteToMessageDecoder}.
+ * <p>
+ * Frames that are fully contained in a read buffer are passed on as a slice of that buffer without copying. When a
+ * frame spans multiple reads, a buffer of the exact frame size is allocated as soon as the 4 byte length is known and
+ * each read is copied into it once, releasing the read buffer straight away. That way a payload retained by a
+ * {@link org.jgroups.ByteBufMessage} only ever pins the bytes of its own frame (or the read buffer it arrived in)
+ * and never a growing cumulation of unrelated frames. Very large frames can be assembled in a memory-mapped file
+ * instead, see {@link FrameSpill}.
+ * <p>
+ * Frames with flags set in their length field (see {@link FrameFormat}) are passed on as a {@link FlaggedFrame}.
+ * <p>
+ * After the peer sent {@link FrameFormat#SWITCH_COMPACT}, the rest of the stream is read as {@link CompactFrames}:
+ * delta frames are decoded into regular frames before they are passed on. A stream that can't be split into frames,
+ * e.g. with a compact frame length above {@link FrameFormat#LENGTH_MASK}, closes the connection.
+ */
+public class MessageHandler extends ChannelInboundHandlerAdapter {
+   // Never clashes with the flags, which are the highest bits of the length field
+   private static final int DELTA = 1;
+
+   private final CompactFrames compact;
+   private final FrameSpill spill;
+   // Set once the peer switched to the compact format
+   private CompactFrames.Decoder decoder;
+   // Whether a compact stream announced that a frame in the regular format follows
+   private boolean regularFrameNext;
+   // The partially read length field, only valid while lengthBytesRead > 0
+   private int pendingLength;
+   private int lengthBytesRead;
+   // The length field of the last frame header that was read, including the flags
+   private int frameHeader;
+   // The frame currently being assembled across reads, if any
+   private ByteBuf frame;
+   private int frameFlags;
+   private boolean firedChannelRead;
+   // Set once the stream couldn't be read, until the connection is closed
+   private boolean corrupted;
+
+   public MessageHandler(CompactFrames compact, FrameSpill spill) {
+      this.compact = compact;
+      this.spill = spill;
+   }
 
-public class MessageHandler extends ByteToMessageDecoder {
    @Override
-   protected void decode(ChannelHandlerContext ctx, ByteBuf msgbuf, List<Object> out) {
-      if (msgbuf.readableBytes() < 4) {
+   public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+      if (!(msg instanceof ByteBuf)) {
+         ctx.fireChannelRead(msg);
+         return;
+      }
+      ByteBuf in = (ByteBuf) msg;
+      if (corrupted) {
+         in.release();
+         return;
+      }
+      try {
+         while (in.isReadable() && !ctx.isRemoved()) {
+            if (frame != null) {
+               appendToFrame(ctx, in);
+               continue;
+            }
+            int frameLength, flags;
+            if (decoder != null && !regularFrameNext) {
+               if (!readVarint(in)) {
+                  break;
+               }
+               if (frameHeader == 0) {
+                  regularFrameNext = true;
+                  continue;
+               }
+               frameLength = frameHeader;
+               flags = DELTA;
+            } else {
+               if (!readHeader(in)) {
+                  // Not enough bytes to read the length field yet
+                  break;
+               }
+               regularFrameNext = false;
+               frameLength = frameHeader & FrameFormat.LENGTH_MASK;
+               flags = frameHeader & FrameFormat.FLAGS_MASK;
+            }
+            if (in.readableBytes() >= frameLength) {
+               // The whole frame is available, just hand out a view of it
+               ByteBuf slice = in.retainedSlice(in.readerIndex(), frameLength);
+               in.skipBytes(frameLength);
+               fireFrame(ctx, slice, flags);
+            } else {
+               frameFlags = flags;
+               frame = spill.allocate(ctx.alloc(), frameLength);
+               appendToFrame(ctx, in);
+            }
+         }
+      } catch (CorruptedFrameException e) {
+         corrupted = true;
+         releaseFrame();
+         ctx.close();
+         ctx.fireExceptionCaught(e);
+      } finally {
+         in.release();
+      }
+   }
+
+   private boolean readHeader(ByteBuf in) {
+      if (lengthBytesRead == 0 && in.readableBytes() >= Integer.BYTES) {
+         frameHeader = in.readInt();
+         return true;
+      }
+      while (lengthBytesRead < Integer.BYTES && in.isReadable()) {
+         pendingLength = (pendingLength << 8) | in.readUnsignedByte();
+         lengthBytesRead++;
+      }
+      if (lengthBytesRead < Integer.BYTES) {
+         return false;
+      }
+      frameHeader = pendingLength;
+      pendingLength = lengthBytesRead = 0;
+      return true;
+   }
+
+   private boolean readVarint(ByteBuf in) {
+      while (in.isReadable()) {
+         byte b = in.readByte();
+         pendingLength |= (b & 0x7f) << (7 * lengthBytesRead++);
+         if (b >= 0) {
+            frameHeader = pendingLength;
+            pendingLength = lengthBytesRead = 0;
+            if (frameHeader < 0 || frameHeader > FrameFormat.LENGTH_MASK) {
+               // A fifth byte shifted bits into the sign
+               throw new CorruptedFrameException("Invalid compact frame length " + frameHeader);
+            }
+            return true;
+         }
+         if (lengthBytesRead == Integer.BYTES + 1) {
+            throw new CorruptedFrameException("Malformed compact frame length");
+         }
+      }
+      return false;
+   }
+
+   private void appendToFrame(ChannelHandlerContext ctx, ByteBuf in) {
+      in.readBytes(frame, Math.min(frame.writableBytes(), in.readableBytes()));
+      if (!frame.isWritable()) {
+         ByteBuf completed = frame;
+         frame = null;
+         fireFrame(ctx, completed, frameFlags);
+      }
+   }
+
+   private void fireFrame(ChannelHandlerContext ctx, ByteBuf completed, int flags) {
+      if (flags == DELTA) {
+         ByteBuf delta = completed;
+         try {
+            completed = decoder.decode(ctx.alloc(), delta);
+         } finally {
+            delta.release();
+         }
+         flags = 0;
+      } else if (flags == FrameFormat.CONTROL && completed.getByte(completed.readerIndex()) == FrameFormat.SWITCH_COMPACT) {
+         // The rest of the stream has to be read differently, so this can't be left to a later handler
+         int peerMaxFrameSize = completed.readableBytes() > Integer.BYTES
+               ? completed.getInt(completed.readerIndex() + 1) : 0;
+         completed.release();
+         decoder = compact.newDecoder(peerMaxFrameSize);
          return;
       }
-      int startingPos = msgbuf.readerIndex();
-      int totalLength = msgbuf.readInt();
-      if (msgbuf.readableBytes() < totalLength) {
-         msgbuf.readerIndex(startingPos);
+      firedChannelRead = true;
+      if (flags != 0) {
+         // Ownership is passed on to the handler of the flagged frame
+         ctx.fireChannelRead(new FlaggedFrame(flags, completed));
          return;
       }
-      out.add(new ExposedByteBufInputStream(msgbuf, totalLength));
+      try {
+         ctx.fireChannelRead(new ExposedByteBufInputStream(completed, completed.readableBytes()));
+      } finally {
+         // Anything that needs to outlive the read has retained its own slice
+         completed.release();
+      }
+   }
+
+   @Override
+   public void channelReadComplete(ChannelHandlerContext ctx) {
+      // Same as ByteToMessageDecoder: if nothing was decoded we still need more data even if auto read is off
+      if (!firedChannelRead && !ctx.channel().config().isAutoRead()) {
+         ctx.read();
+      }
+      firedChannelRead = false;
+      ctx.fireChannelReadComplete();
+   }
+
+   @Override
+   public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+      releaseFrame();
+      super.channelInactive(ctx);
+   }
+
+   @Override
+   public void handlerRemoved(ChannelHandlerContext ctx) {
+      releaseFrame();
+   }
+
+   private void releaseFrame() {
+      if (frame != null) {
+         frame.release();
+         frame = null;
+      }
+      pendingLength = lengthBytesRead = 0;
+   }
+
+   /**
+    * A frame with {@link FrameFormat#FLAGS_MASK} bits set, which has to be handled before it is read as a message.
+    * Whoever consumes it must release its content.
+    */
+   public static class FlaggedFrame {
+      private final int flags;
+      private final ByteBuf content;
+
+      FlaggedFrame(int flags, ByteBuf content) {
+         this.flags = flags;
+         this.content = content;
+      }
+
+      public int flags() {
+         return flags;
+      }
+
+      public ByteBuf content() {
+         return content;
+      }
    }
 }
@@ -0,0 +1,63 @@
+package netty.utils;
+
+import org.jgroups.blocks.cs.netty.NettyConnection;
+import org.jgroups.stack.IpAddress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Counts the frames passing through a channel, after decompression on the way in and before compression on the
+ * way out, and attributes them to the peer once its address is known.
+ */
+public class MetricsHandler extends ChannelDuplexHandler {
+    private final TransportMetrics metrics;
+    private TransportMetrics.PeerMetrics peer;
+
+    public MetricsHandler(TransportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private TransportMetrics.PeerMetrics peer(ChannelHandlerContext ctx) {
+        if (peer == null) {
+            IpAddress address = ctx.channel().attr(NettyConnection.ADDRESS_ATTRIBUTE).get();
+            if (address != null) {
+                peer = metrics.peer(address);
+            }
+        }
+        return peer;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ExposedByteBufInputStream) {
+            ExposedByteBufInputStream in = (ExposedByteBufInputStream) msg;
+            int size = in.getEndReadIndex() - in.getBuf().readerIndex();
+            // The address is only set once the first frame was read, so resolve the peer afterwards
+            ctx.fireChannelRead(msg);
+            metrics.frameReceived(peer(ctx), size);
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            // The body of a file region frame follows separately, so take the size from the length field
+            metrics.frameSent(peer(ctx), FrameFormat.frameSize((ByteBuf) msg));
+        }
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        TransportMetrics.PeerMetrics peer = peer(ctx);
+        if (peer != null) {
+            peer.writabilityChanged();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+}
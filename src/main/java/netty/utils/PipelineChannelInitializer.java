@@ -2,7 +2,6 @@ package netty.utils;
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
-import io.netty.handler.flush.FlushConsolidationHandler;
 import netty.listeners.ChannelLifecycleListener;
 import netty.listeners.NettyReceiverListener;
 
@@ -12,18 +11,64 @@ import netty.listeners.NettyReceiverListener;
 public class PipelineChannelInitializer extends ChannelInitializer<Channel> {
     private final NettyReceiverListener nettyReceiverListener;
     private final ChannelLifecycleListener lifecycleListener;
+    private final FlushPolicy flushPolicy;
+    private final FrameCompression compression;
+    private final CompactFrames compact;
+    private final FrameSpill spill;
+    private final Tls tls;
+    private final TransportMetrics metrics;
+    private final ClockSync clockSync;
+    private final IdleConnections idleConnections;
+    private final ConnectionHealth health;
+    private final Striping striping;
+    private final SocketTuning tuning;
 
-    public PipelineChannelInitializer(NettyReceiverListener nettyReceiverListener, ChannelLifecycleListener lifecycleListener) {
+    public PipelineChannelInitializer(NettyReceiverListener nettyReceiverListener, ChannelLifecycleListener lifecycleListener,
+                                      FlushPolicy flushPolicy, FrameCompression compression, CompactFrames compact,
+                                      FrameSpill spill, Tls tls, TransportMetrics metrics, ClockSync clockSync,
+                                      IdleConnections idleConnections, ConnectionHealth health, Striping striping,
+                                      SocketTuning tuning) {
         this.nettyReceiverListener = nettyReceiverListener;
         this.lifecycleListener = lifecycleListener;
+        this.flushPolicy = flushPolicy;
+        this.compression = compression;
+        this.compact = compact;
+        this.spill = spill;
+        this.tls = tls;
+        this.metrics = metrics;
+        this.clockSync = clockSync;
+        this.idleConnections = idleConnections;
+        this.health = health;
+        this.striping = striping;
+        this.tuning = tuning;
     }
 
     @Override
     protected void initChannel(Channel ch) {
-        ch.pipeline().addFirst(new FlushConsolidationHandler(1000 * 32, true));//outbound and inbound (1)
-        ch.pipeline().addLast(new MessageHandler()); // (2)
-        ch.pipeline().addLast(new ReceiverHandler(nettyReceiverListener, lifecycleListener)); // (4)
-        // inbound ---> 1, 2, 4
-        // outbound --> 1
+        ch.pipeline().addFirst(new AdaptiveFlushHandler(flushPolicy));//outbound and inbound (1)
+        ch.pipeline().addLast(new MessageHandler(compact, spill)); // (2)
+        ch.pipeline().addLast(new CompactFrameHandler(compact)); // outbound and inbound (3)
+        ch.pipeline().addLast(new CompressionHandler(compression,
+              compact.enabled() ? FrameFormat.CAPABILITY_COMPACT : 0)); // outbound and inbound (4)
+        if (health.isChecking()) {
+            ch.pipeline().addLast(new ConnectionHealthHandler(health, nettyReceiverListener)); // (5)
+        }
+        ch.pipeline().addLast(new ClockSyncHandler(clockSync)); // (6)
+        if (striping.enabled()) {
+            ch.pipeline().addLast(new StripingHandler(striping)); // (7)
+        }
+        if (tuning.isAdaptive()) {
+            ch.pipeline().addLast(new SocketTuningHandler(tuning)); // (8)
+        }
+        if (idleConnections != null) {
+            ch.pipeline().addLast(new IdleConnectionHandler(idleConnections, nettyReceiverListener)); // outbound and inbound (9)
+        }
+        ch.pipeline().addLast(new MetricsHandler(metrics)); // outbound and inbound (10)
+        ch.pipeline().addLast(new ReceiverHandler(nettyReceiverListener, lifecycleListener)); // (11)
+        if (tls != null) {
+            tls.addHandler(ch); // outbound and inbound (0), ahead of the flush handler so it sees consolidated flushes
+        }
+        // inbound ---> 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11
+        // outbound --> 10, 9, 4, 3, 1, 0
     }
 }
@@ -26,6 +26,11 @@ public class ReceiverHandler extends ChannelInboundHandlerAdapter {
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof MessageHandler.FlaggedFrame) {
+            // Control frame nobody handled, most likely sent by a newer version
+            ((MessageHandler.FlaggedFrame) msg).content().release();
+            return;
+        }
         DataInput input = (DataInput) msg;
 
         IpAddress sender = new IpAddress();
@@ -43,6 +48,12 @@ public class ReceiverHandler extends ChannelInboundHandlerAdapter {
         assert !(input instanceof InputStream) || ((InputStream) input).available() == 0;
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        nettyReceiverListener.onReadComplete();
+        ctx.fireChannelReadComplete();
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) {
         lifecycleListener.channelActive(ctx);
@@ -67,6 +78,13 @@ public class ReceiverHandler extends ChannelInboundHandlerAdapter {
             if (prevWriteStatus.get() != isWriteable) {
                 prevWriteStatus.set(isWriteable);
                 nettyReceiverListener.channelWritabilityChanged(ipAddress, isWriteable);
+                TransportEvents.WritabilityChanged event = new TransportEvents.WritabilityChanged();
+                if (event.isEnabled()) {
+                    event.peer = ipAddress.toString();
+                    event.writable = isWriteable;
+                    event.pendingBytes = NettyConnection.pendingOutboundBytes(ctx.channel());
+                    event.commit();
+                }
             }
         }
     }
@@ -0,0 +1,297 @@
+package netty.utils;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.jgroups.stack.IpAddress;
+
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.DefaultMaxMessagesRecvByteBufAllocator;
+import io.netty.channel.RecvByteBufAllocator;
+import io.netty.channel.WriteBufferWaterMark;
+
+/**
+ * Socket buffer sizes, write buffer watermarks, receive buffer guesses and {@code TCP_NOTSENT_LOWAT} of the
+ * connections. Netty's defaults of a 32/64KB watermark and receive buffers of at most 64KB suit a LAN, but on a link
+ * with a large bandwidth-delay product a member keeps flipping to unavailable while the kernel could still take more.
+ * <p>
+ * In adaptive mode, every {@link #intervalMillis()} each {@link SocketTuningHandler} sizes the watermark and the max
+ * receive buffer guess of its connection to the bandwidth-delay product of its member: the peak rate at which bytes
+ * were sent to, respectively received from, the member times the round trip time to it, which {@link ClockSync} pings
+ * the connections for. Neither is ever made smaller than configured, nor larger than {@link #maxAdaptiveSize()}.
+ */
+public class SocketTuning {
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final WriteBufferWaterMark waterMark;
+    private final int receiveMin;
+    private final int receiveInitial;
+    private final int receiveMax;
+    private final long notSentLowat;
+    private final long intervalMillis;
+    private final int maxAdaptiveSize;
+    private final TransportMetrics metrics;
+    private final ClockSync clockSync;
+    private final Map<IpAddress, Peer> peers = new ConcurrentHashMap<>();
+    private final LongAdder adjustments = new LongAdder();
+
+    /**
+     * @param sendBufferSize {@code SO_SNDBUF}, 0 for the system default
+     * @param receiveBufferSize {@code SO_RCVBUF}, 0 for the system default
+     * @param lowWaterMark low write buffer watermark, 0 for Netty's default
+     * @param highWaterMark high write buffer watermark, 0 for Netty's default
+     * @param receiveMin min receive buffer guess
+     * @param receiveInitial initial receive buffer guess
+     * @param receiveMax max receive buffer guess
+     * @param notSentLowat {@code TCP_NOTSENT_LOWAT}, 0 for the system default
+     * @param intervalMillis interval at which the adaptive mode sizes the watermarks and receive buffer guesses, 0 to
+     *                       keep them as configured
+     * @param maxAdaptiveSize max watermark and receive buffer guess of the adaptive mode
+     */
+    public SocketTuning(int sendBufferSize, int receiveBufferSize, int lowWaterMark, int highWaterMark,
+                        int receiveMin, int receiveInitial, int receiveMax, long notSentLowat,
+                        long intervalMillis, int maxAdaptiveSize, TransportMetrics metrics, ClockSync clockSync) {
+        int low = lowWaterMark > 0 ? lowWaterMark : WriteBufferWaterMark.DEFAULT.low();
+        int high = highWaterMark > 0 ? highWaterMark : Math.max(low, WriteBufferWaterMark.DEFAULT.high());
+        if (low > high) {
+            throw new IllegalArgumentException("The low write buffer watermark (" + low + ") can't be higher than " +
+                  "the high one (" + high + ")");
+        }
+        if (receiveMin <= 0 || receiveMin > receiveInitial || receiveInitial > receiveMax) {
+            throw new IllegalArgumentException("The receive buffer guesses have to be positive with min (" + receiveMin +
+                  ") <= initial (" + receiveInitial + ") <= max (" + receiveMax + ")");
+        }
+        if (intervalMillis > 0 && maxAdaptiveSize < Math.max(high, receiveMax)) {
+            throw new IllegalArgumentException("The max adaptive size (" + maxAdaptiveSize + ") can't be smaller than " +
+                  "the high write buffer watermark or the max receive buffer guess");
+        }
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.waterMark = new WriteBufferWaterMark(low, high);
+        this.receiveMin = receiveMin;
+        this.receiveInitial = receiveInitial;
+        this.receiveMax = receiveMax;
+        this.notSentLowat = notSentLowat;
+        this.intervalMillis = intervalMillis;
+        this.maxAdaptiveSize = maxAdaptiveSize;
+        this.metrics = metrics;
+        this.clockSync = clockSync;
+    }
+
+    public int sendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public int receiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public WriteBufferWaterMark waterMark() {
+        return waterMark;
+    }
+
+    public long notSentLowat() {
+        return notSentLowat;
+    }
+
+    public boolean isAdaptive() {
+        return intervalMillis > 0;
+    }
+
+    public long intervalMillis() {
+        return intervalMillis;
+    }
+
+    public int maxAdaptiveSize() {
+        return maxAdaptiveSize;
+    }
+
+    /**
+     * The allocator of the receive buffers of a connection, a new one per connection in adaptive mode
+     */
+    public RecvByteBufAllocator receiveAllocator() {
+        return isAdaptive() ? new ReceiveAllocator(receiveMin, receiveInitial, receiveMax)
+              : new AdaptiveRecvByteBufAllocator(receiveMin, receiveInitial, receiveMax);
+    }
+
+    /** Number of times the watermark or max receive buffer guess of a member was changed by the adaptive mode */
+    public long adjustments() {
+        return adjustments.sum();
+    }
+
+    public void reset() {
+        adjustments.reset();
+    }
+
+    /**
+     * Invoked by the handler of each connection to the peer every {@link #intervalMillis()}. The sizes are only
+     * computed again once per interval, whichever connection comes first
+     */
+    Peer tune(IpAddress peer, long now) {
+        Peer state = peers.computeIfAbsent(peer, p -> new Peer(waterMark, receiveMax));
+        synchronized (state) {
+            // Half an interval, so a connection whose checks run a bit earlier than those of another still updates
+            long elapsed = now - state.time;
+            if (state.time != 0 && elapsed < TimeUnit.MILLISECONDS.toNanos(intervalMillis) / 2) {
+                return state;
+            }
+            TransportMetrics.PeerMetrics peerMetrics = metrics.peer(peer);
+            long bytesOut = peerMetrics.bytesOut();
+            long bytesIn = peerMetrics.bytesIn();
+            if (state.time != 0) {
+                // The peak rate decays by half every interval, so a short pause doesn't shrink the sizes right away
+                state.rateOut = Math.max(rate(bytesOut - state.bytesOut, elapsed), state.rateOut / 2);
+                state.rateIn = Math.max(rate(bytesIn - state.bytesIn, elapsed), state.rateIn / 2);
+            }
+            state.time = now;
+            state.bytesOut = bytesOut;
+            state.bytesIn = bytesIn;
+            long rtt = clockSync.rtt(peer);
+            if (rtt == ClockSync.UNKNOWN) {
+                return state;
+            }
+            state.rtt = rtt;
+            int high = size(state.rateOut, rtt, waterMark.high(), state.high);
+            int receive = size(state.rateIn, rtt, receiveMax, state.receiveMax);
+            if (high != state.high || receive != state.receiveMax) {
+                adjustments.increment();
+                state.high = high;
+                state.low = Math.max(waterMark.low(), high / 2);
+                state.receiveMax = receive;
+            }
+            return state;
+        }
+    }
+
+    // Bytes per second, rates below a byte per second are rounded down to 0
+    private static long rate(long bytes, long elapsedNanos) {
+        return bytes <= 0 || elapsedNanos <= 0 ? 0 : (long) (bytes * 1e9 / elapsedNanos);
+    }
+
+    // The bandwidth-delay product within the configured size and the max adaptive size, left as it is unless it
+    // changed by at least a quarter, so the sizes don't follow every bit of jitter
+    private int size(long rate, long rttNanos, int configured, int current) {
+        long bdp = (long) (rate * (rttNanos / 1e9));
+        int size = (int) Math.min(Math.max(bdp, configured), maxAdaptiveSize);
+        return Math.abs(size - current) < current / 4 ? current : size;
+    }
+
+    /**
+     * Forgets the members that left
+     */
+    public void retainAll(Collection<?> members) {
+        peers.keySet().retainAll(members);
+    }
+
+    @Override
+    public String toString() {
+        return peers.entrySet().stream()
+              .map(e -> {
+                  Peer state = e.getValue();
+                  synchronized (state) {
+                      return String.format("%s: rtt=%dus out=%dKB/s in=%dKB/s watermark=%d/%d receive max=%d",
+                            e.getKey(), TimeUnit.NANOSECONDS.toMicros(state.rtt), state.rateOut / 1024,
+                            state.rateIn / 1024, state.low, state.high, state.receiveMax);
+                  }
+              })
+              .collect(Collectors.joining("\n"));
+    }
+
+    static class Peer {
+        long time;
+        long bytesOut;
+        long bytesIn;
+        // Peak bytes per second
+        long rateOut;
+        long rateIn;
+        long rtt;
+        int low;
+        int high;
+        int receiveMax;
+
+        Peer(WriteBufferWaterMark waterMark, int receiveMax) {
+            this.low = waterMark.low();
+            this.high = waterMark.high();
+            this.receiveMax = receiveMax;
+        }
+
+        synchronized WriteBufferWaterMark waterMark() {
+            return new WriteBufferWaterMark(low, high);
+        }
+
+        synchronized int receiveMax() {
+            return receiveMax;
+        }
+    }
+
+    /**
+     * Like Netty's {@link AdaptiveRecvByteBufAllocator}, grows the guess when a read filled the buffer and shrinks it
+     * when two reads in a row used less than half of it, but with a max that can be changed while the connection is
+     * open. Netty creates the handle of a connection once, so replacing the allocator wouldn't have any effect
+     */
+    static final class ReceiveAllocator extends DefaultMaxMessagesRecvByteBufAllocator {
+        private final int min;
+        private final int initial;
+        private volatile int max;
+
+        ReceiveAllocator(int min, int initial, int max) {
+            this.min = min;
+            this.initial = initial;
+            this.max = max;
+        }
+
+        void max(int max) {
+            this.max = max;
+        }
+
+        @Override
+        public MaxMessageHandle newHandle() {
+            return new HandleImpl();
+        }
+
+        private final class HandleImpl extends MaxMessageHandle {
+            private int guess = initial;
+            private boolean decreaseNow;
+
+            @Override
+            public int guess() {
+                return guess;
+            }
+
+            @Override
+            public void lastBytesRead(int bytes) {
+                // Grow right away if the buffer was filled, rather than only after the whole read
+                if (bytes == attemptedBytesRead()) {
+                    record(bytes);
+                }
+                super.lastBytesRead(bytes);
+            }
+
+            @Override
+            public void readComplete() {
+                record(totalBytesRead());
+            }
+
+            private void record(int actual) {
+                int limit = max;
+                if (actual >= guess) {
+                    guess = Math.min(guess << 1, limit);
+                    decreaseNow = false;
+                } else if (actual <= guess >> 1) {
+                    if (decreaseNow) {
+                        guess = Math.max(guess >> 1, min);
+                    }
+                    decreaseNow = !decreaseNow;
+                } else {
+                    decreaseNow = false;
+                }
+                // The max may just have been lowered
+                guess = Math.max(Math.min(guess, limit), min);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package netty.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.blocks.cs.netty.NettyConnection;
+import org.jgroups.stack.IpAddress;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * Applies the write buffer watermark and max receive buffer guess {@link SocketTuning} sized for the member to its
+ * connection every {@link SocketTuning#intervalMillis()}. Only added in adaptive mode.
+ */
+public class SocketTuningHandler extends ChannelInboundHandlerAdapter {
+    private final SocketTuning tuning;
+    private SocketTuning.ReceiveAllocator receiveAllocator;
+    private ScheduledFuture<?> tune;
+
+    public SocketTuningHandler(SocketTuning tuning) {
+        this.tuning = tuning;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        // Added before the first read, when Netty creates the handle of the allocator
+        receiveAllocator = (SocketTuning.ReceiveAllocator) tuning.receiveAllocator();
+        ctx.channel().config().setRecvByteBufAllocator(receiveAllocator);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        long interval = tuning.intervalMillis();
+        tune = ctx.executor().scheduleAtFixedRate(() -> tune(ctx.channel()), interval, interval, TimeUnit.MILLISECONDS);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (tune != null) {
+            tune.cancel(false);
+            tune = null;
+        }
+        super.channelInactive(ctx);
+    }
+
+    private void tune(Channel ch) {
+        IpAddress peer = ch.attr(NettyConnection.ADDRESS_ATTRIBUTE).get();
+        if (peer == null) {
+            // Accepted, but the member didn't send a message yet
+            return;
+        }
+        SocketTuning.Peer state = tuning.tune(peer, System.nanoTime());
+        WriteBufferWaterMark waterMark = state.waterMark();
+        if (waterMark.high() != ch.config().getWriteBufferHighWaterMark()) {
+            ch.config().setWriteBufferWaterMark(waterMark);
+        }
+        receiveAllocator.max(state.receiveMax());
+    }
+}
@@ -0,0 +1,301 @@
+package netty.utils;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.jgroups.stack.IpAddress;
+
+import io.netty.channel.Channel;
+
+/**
+ * Stripes the traffic to a member across several pairs of network interfaces, for hosts with NICs that can't be
+ * bonded. The transport also listens on {@link #localAddresses()}, on the port of its primary address, and advertises
+ * them to every member it connects to in a {@link FrameFormat#PATHS} control frame. Once both sides have additional
+ * addresses, the frames sent to the member are spread round robin across the primary connection and one connection
+ * from each additional local address to the matching additional address of the member, i.e. the n-th to the n-th.
+ * <p>
+ * A path whose connection can't be opened is skipped and retried after {@link #RETRY_MILLIS}, and if the primary
+ * connection is down the other paths carry the frames while it is opened again. Frames to the same member may arrive
+ * out of order across paths, which the reliable protocols above the transport already reorder.
+ */
+public class Striping {
+    /** Time a path that failed or closed is skipped before it is opened again */
+    public static final long RETRY_MILLIS = 1000;
+
+    private final List<InetAddress> localAddresses;
+    private volatile IpAddress self;
+    private volatile List<IpAddress> advertised = List.of();
+    private final Map<IpAddress, Paths> peers = new ConcurrentHashMap<>();
+    // Connections of the additional paths members opened to us
+    private final Map<IpAddress, Set<Channel>> inbound = new ConcurrentHashMap<>();
+    private final LongAdder framesStriped = new LongAdder();
+    private final LongAdder pathFailures = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+
+    /**
+     * @param localAddresses the additional addresses to listen on and connect from, empty to not stripe
+     */
+    public Striping(List<InetAddress> localAddresses) {
+        this.localAddresses = List.copyOf(localAddresses);
+    }
+
+    public boolean enabled() {
+        return !localAddresses.isEmpty();
+    }
+
+    public List<InetAddress> localAddresses() {
+        return localAddresses;
+    }
+
+    /**
+     * Invoked once the transport listens on all its addresses
+     *
+     * @param self the primary address of the transport
+     */
+    public void listening(IpAddress self) {
+        this.self = self;
+        advertised = localAddresses.stream().map(a -> new IpAddress(a, self.getPort())).collect(Collectors.toList());
+    }
+
+    public IpAddress self() {
+        return self;
+    }
+
+    /** The additional addresses we listen on */
+    public List<IpAddress> advertised() {
+        return advertised;
+    }
+
+    /** Number of frames sent over an additional path rather than the primary connection */
+    public long framesStriped() {
+        return framesStriped.sum();
+    }
+
+    /** Number of times an additional path couldn't be opened */
+    public long pathFailures() {
+        return pathFailures.sum();
+    }
+
+    /** Number of frames sent over an additional path because the primary connection was down */
+    public long failovers() {
+        return failovers.sum();
+    }
+
+    /** Number of connections of additional paths currently open to members */
+    public int openPaths() {
+        return peers.values().stream().mapToInt(Paths::open).sum();
+    }
+
+    public void reset() {
+        framesStriped.reset();
+        pathFailures.reset();
+        failovers.reset();
+    }
+
+    public void striped() {
+        framesStriped.increment();
+    }
+
+    public void failedOver() {
+        failovers.increment();
+    }
+
+    public void pathFailed() {
+        pathFailures.increment();
+    }
+
+    /**
+     * @return the paths to the member, or null if it didn't advertise any additional address
+     */
+    public Paths paths(IpAddress peer) {
+        return peers.get(peer);
+    }
+
+    /**
+     * Invoked when a member advertised its additional addresses
+     */
+    void advertised(IpAddress peer, List<IpAddress> remote) {
+        int size = Math.min(remote.size(), localAddresses.size());
+        if (size == 0) {
+            Paths removed = peers.remove(peer);
+            if (removed != null) {
+                removed.close();
+            }
+            return;
+        }
+        List<IpAddress> used = List.copyOf(remote.subList(0, size));
+        Paths previous = peers.get(peer);
+        if (previous == null || !previous.remote.equals(used)) {
+            previous = peers.put(peer, new Paths(used));
+            if (previous != null) {
+                previous.close();
+            }
+        }
+    }
+
+    void inboundPath(IpAddress peer, Channel ch) {
+        inbound.computeIfAbsent(peer, p -> ConcurrentHashMap.newKeySet()).add(ch);
+        ch.closeFuture().addListener(f -> inbound.computeIfPresent(peer, (p, channels) -> {
+            channels.remove(ch);
+            return channels.isEmpty() ? null : channels;
+        }));
+    }
+
+    /**
+     * Pauses or resumes reading from the connections of the additional paths the member opened to us, along with its
+     * primary connection
+     */
+    public void setAutoRead(IpAddress peer, boolean autoRead) {
+        Set<Channel> channels = peer != null ? inbound.get(peer) : null;
+        if (channels != null) {
+            channels.forEach(ch -> ch.config().setAutoRead(autoRead));
+        }
+    }
+
+    /**
+     * Forgets the members that left, closing the connections of their additional paths
+     */
+    public void retainAll(Collection<?> members) {
+        peers.entrySet().removeIf(e -> {
+            if (members.contains(e.getKey())) {
+                return false;
+            }
+            e.getValue().close();
+            return true;
+        });
+    }
+
+    @Override
+    public String toString() {
+        return peers.entrySet().stream()
+              .map(e -> e.getKey() + ": " + e.getValue())
+              .collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * The additional paths to a member, path 0 being the primary connection kept by the transport
+     */
+    public final class Paths {
+        private final List<IpAddress> remote;
+        // Read without locking by every frame sent
+        private final AtomicReferenceArray<Channel> channels;
+        private final boolean[] connecting;
+        private final long[] retryAt;
+        private final AtomicInteger next = new AtomicInteger();
+
+        Paths(List<IpAddress> remote) {
+            this.remote = remote;
+            this.channels = new AtomicReferenceArray<>(remote.size());
+            this.connecting = new boolean[remote.size()];
+            this.retryAt = new long[remote.size()];
+            Arrays.fill(retryAt, System.nanoTime());
+        }
+
+        /** Number of paths, including the primary one */
+        public int size() {
+            return remote.size() + 1;
+        }
+
+        /** The path the next frame is sent over */
+        public int next() {
+            return Math.floorMod(next.getAndIncrement(), size());
+        }
+
+        public InetAddress localAddress(int path) {
+            return localAddresses.get(path - 1);
+        }
+
+        public IpAddress remoteAddress(int path) {
+            return remote.get(path - 1);
+        }
+
+        /**
+         * @return the open connection of the path, or null
+         */
+        public Channel channel(int path) {
+            Channel ch = channels.get(path - 1);
+            return ch != null && ch.isActive() ? ch : null;
+        }
+
+        /** Any open connection of an additional path, or null */
+        public Channel anyChannel() {
+            for (int i = 0; i < channels.length(); i++) {
+                Channel ch = channels.get(i);
+                if (ch != null && ch.isActive()) {
+                    return ch;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return whether the caller should open the connection of the path, which it reports to
+         * {@link #opened(int, Channel)} or {@link #failed(int)}
+         */
+        public synchronized boolean open(int path) {
+            int i = path - 1;
+            if (channels.get(i) != null || connecting[i] || System.nanoTime() - retryAt[i] < 0) {
+                return false;
+            }
+            connecting[i] = true;
+            return true;
+        }
+
+        public synchronized void opened(int path, Channel ch) {
+            connecting[path - 1] = false;
+            channels.set(path - 1, ch);
+        }
+
+        public synchronized void failed(int path) {
+            connecting[path - 1] = false;
+            retryAt[path - 1] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS);
+        }
+
+        public synchronized void closed(int path, Channel ch) {
+            if (channels.compareAndSet(path - 1, ch, null)) {
+                retryAt[path - 1] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS);
+            }
+        }
+
+        int open() {
+            int open = 0;
+            for (int i = 0; i < channels.length(); i++) {
+                Channel ch = channels.get(i);
+                if (ch != null && ch.isActive()) {
+                    open++;
+                }
+            }
+            return open;
+        }
+
+        public void close() {
+            for (int i = 0; i < channels.length(); i++) {
+                Channel ch = channels.get(i);
+                if (ch != null) {
+                    ch.close();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < channels.length(); i++) {
+                Channel ch = channels.get(i);
+                sb.append(i > 0 ? ", " : "").append(localAddresses.get(i).getHostAddress()).append(" -> ")
+                      .append(remote.get(i)).append(ch != null && ch.isActive() ? " (open)" : "");
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package netty.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jgroups.blocks.cs.netty.NettyConnection;
+import org.jgroups.stack.IpAddress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Exchanges the additional addresses of both sides in {@link FrameFormat#PATHS} control frames, see {@link Striping}.
+ * A connection we open announces the path it belongs to, which lets the accepting side tell the connections of
+ * additional paths from the primary one of the member.
+ */
+public class StripingHandler extends ChannelInboundHandlerAdapter {
+    private final Striping striping;
+
+    public StripingHandler(Striping striping) {
+        this.striping = striping;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        Channel ch = ctx.channel();
+        if (ch.parent() == null) {
+            // Only set on the connections of additional paths, merely looking it up would create it
+            writePaths(ctx, ch.hasAttr(NettyConnection.PATH_ATTRIBUTE) ? ch.attr(NettyConnection.PATH_ATTRIBUTE).get() : 0);
+        }
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof MessageHandler.FlaggedFrame)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        MessageHandler.FlaggedFrame frame = (MessageHandler.FlaggedFrame) msg;
+        ByteBuf content = frame.content();
+        if ((frame.flags() & FrameFormat.CONTROL) == 0 || content.getByte(content.readerIndex()) != FrameFormat.PATHS) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        int path;
+        IpAddress peer = new IpAddress();
+        List<IpAddress> addresses;
+        try (ByteBufInputStream in = new ByteBufInputStream(content, true)) {
+            in.skipBytes(1);
+            path = in.readUnsignedByte();
+            peer.readFrom(in);
+            int count = in.readUnsignedByte();
+            addresses = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                IpAddress address = new IpAddress();
+                address.readFrom(in);
+                addresses.add(address);
+            }
+        }
+        Channel ch = ctx.channel();
+        if (path > 0) {
+            // Kept out of the channel tables of the member, so nothing but its own frames is sent over it
+            ch.attr(NettyConnection.PATH_ATTRIBUTE).set(path);
+            ch.attr(NettyConnection.ADDRESS_ATTRIBUTE).set(peer);
+            striping.inboundPath(peer, ch);
+            return;
+        }
+        striping.advertised(peer, addresses);
+        if (ch.parent() != null) {
+            writePaths(ctx, 0);
+        }
+    }
+
+    private void writePaths(ChannelHandlerContext ctx, int path) throws Exception {
+        IpAddress self = striping.self();
+        List<IpAddress> advertised = striping.advertised();
+        int size = 1 + 1 + self.serializedSize() + 1;
+        for (IpAddress address : advertised) {
+            size += address.serializedSize();
+        }
+        ByteBuf frame = ctx.alloc().buffer(Integer.BYTES + size);
+        try (ByteBufOutputStream out = new ByteBufOutputStream(frame)) {
+            out.writeInt(size | FrameFormat.CONTROL);
+            out.writeByte(FrameFormat.PATHS);
+            out.writeByte(path);
+            self.writeTo(out);
+            out.writeByte(advertised.size());
+            for (IpAddress address : advertised) {
+                address.writeTo(out);
+            }
+        }
+        ctx.writeAndFlush(frame, ctx.voidPromise());
+    }
+}
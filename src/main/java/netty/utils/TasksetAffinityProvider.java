@@ -0,0 +1,42 @@
+package netty.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.BitSet;
+
+/**
+ * Default {@link AffinityProvider} on Linux, which runs {@code taskset} on the id of the calling thread. Only runs
+ * once per event loop thread when it starts, so the cost of starting a process doesn't matter.
+ */
+public class TasksetAffinityProvider implements AffinityProvider {
+    private static final Path THREAD_SELF = Paths.get("/proc/thread-self");
+
+    @Override
+    public void bindCurrentThread(BitSet cpus) throws Exception {
+        // Resolves to <pid>/task/<tid>
+        String tid = Files.readSymbolicLink(THREAD_SELF).getFileName().toString();
+        Process process = new ProcessBuilder("taskset", "-p", "-c", EventLoopPlacement.toCpuList(cpus), tid)
+              .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+        if (process.waitFor() != 0) {
+            throw new IOException("taskset failed: " + output.replaceAll("\\s+", " "));
+        }
+    }
+
+    @Override
+    public String currentCpus() {
+        try {
+            for (String line : Files.readAllLines(THREAD_SELF.resolve("status"))) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    return line.substring(line.indexOf(':') + 1).trim();
+                }
+            }
+        } catch (IOException e) {
+            // Not Linux
+        }
+        return null;
+    }
+}
@@ -0,0 +1,139 @@
+package netty.utils;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+
+/**
+ * The TLS contexts used to create the {@link SslHandler} of each channel. OpenSSL (netty-tcnative) is used when it is
+ * on the classpath, falling back to the JDK engine otherwise. Both contexts cache sessions, so reconnecting to a peer
+ * resumes the previous session instead of doing a full handshake.
+ */
+public class Tls {
+    private final SslProvider provider;
+    private final SslContext serverContext;
+    private final SslContext clientContext;
+    private final int wrapDataSize;
+    private final long handshakeTimeoutMillis;
+
+    public Tls(SslProvider provider, SslContext serverContext, SslContext clientContext, int wrapDataSize,
+               long handshakeTimeoutMillis) {
+        this.provider = provider;
+        this.serverContext = serverContext;
+        this.clientContext = clientContext;
+        this.wrapDataSize = wrapDataSize;
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+
+    /**
+     * Creates the contexts from a key store holding the key and certificate of this member and a trust store with the
+     * certificates of trusted peers. The key store doubles as trust store if none is given, which allows a cluster to
+     * share a single self-signed certificate.
+     *
+     * @param provider openssl, jdk, or null to pick openssl if available
+     * @param clientAuth whether server channels require the connecting member to authenticate as well
+     */
+    public static Tls create(String provider, String keyStore, String keyStorePassword, String keyStoreType,
+                             String trustStore, String trustStorePassword, ClientAuth clientAuth,
+                             List<String> protocols, List<String> ciphers, long sessionCacheSize,
+                             long sessionTimeoutSeconds, int wrapDataSize, long handshakeTimeoutMillis) throws Exception {
+        KeyStore keys = load(keyStore, keyStorePassword, keyStoreType);
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keys, keyStorePassword != null ? keyStorePassword.toCharArray() : null);
+
+        KeyStore trusted = trustStore != null ? load(trustStore, trustStorePassword, keyStoreType) : keys;
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trusted);
+
+        SslProvider sslProvider = sslProvider(provider);
+        SslContextBuilder server = SslContextBuilder.forServer(kmf).trustManager(tmf).clientAuth(clientAuth);
+        SslContextBuilder client = SslContextBuilder.forClient().keyManager(kmf).trustManager(tmf);
+        for (SslContextBuilder builder : Arrays.asList(server, client)) {
+            builder.sslProvider(sslProvider)
+                  .sessionCacheSize(sessionCacheSize)
+                  .sessionTimeout(sessionTimeoutSeconds);
+            if (protocols != null && !protocols.isEmpty()) {
+                builder.protocols(protocols);
+            }
+            if (ciphers != null && !ciphers.isEmpty()) {
+                builder.ciphers(ciphers);
+            }
+        }
+        return new Tls(sslProvider, server.build(), client.build(), wrapDataSize, handshakeTimeoutMillis);
+    }
+
+    static SslProvider sslProvider(String provider) {
+        if (provider == null || provider.isEmpty() || provider.equalsIgnoreCase("auto")) {
+            return OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK;
+        }
+        if (provider.equalsIgnoreCase("openssl")) {
+            OpenSsl.ensureAvailability();
+            return SslProvider.OPENSSL;
+        }
+        if (provider.equalsIgnoreCase("jdk")) {
+            return SslProvider.JDK;
+        }
+        throw new IllegalArgumentException("Unknown TLS provider " + provider + ", must be one of auto, openssl or jdk");
+    }
+
+    private static KeyStore load(String path, String password, String type) throws Exception {
+        KeyStore store = KeyStore.getInstance(type);
+        try (InputStream in = Files.newInputStream(Paths.get(path))) {
+            store.load(in, password != null ? password.toCharArray() : null);
+        }
+        return store;
+    }
+
+    public SslProvider provider() {
+        return provider;
+    }
+
+    /**
+     * Adds the {@link SslHandler} for the given channel. Server channels get it right away, client channels when they
+     * connect as the peer address is needed to look up a session to resume.
+     */
+    void addHandler(Channel ch) {
+        if (ch.parent() != null) {
+            ch.pipeline().addFirst(newHandler(serverContext, ch, null));
+        } else {
+            ch.pipeline().addFirst(new ChannelOutboundHandlerAdapter() {
+                @Override
+                public void connect(ChannelHandlerContext ctx, SocketAddress remoteAddress, SocketAddress localAddress,
+                                    ChannelPromise promise) throws Exception {
+                    ctx.pipeline().replace(this, null, newHandler(clientContext, ch, (InetSocketAddress) remoteAddress));
+                    ctx.connect(remoteAddress, localAddress, promise);
+                }
+            });
+        }
+    }
+
+    private SslHandler newHandler(SslContext context, Channel ch, InetSocketAddress peer) {
+        SslHandler handler = peer != null
+              ? context.newHandler(ch.alloc(), peer.getHostString(), peer.getPort())
+              : context.newHandler(ch.alloc());
+        // Encrypt as many pending writes as possible into a single record per flush
+        handler.setWrapDataSize(wrapDataSize);
+        handler.setHandshakeTimeout(handshakeTimeoutMillis, TimeUnit.MILLISECONDS);
+        return handler;
+    }
+}
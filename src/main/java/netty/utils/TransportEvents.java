@@ -0,0 +1,120 @@
+package netty.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events of the Netty transport, so stalls can be correlated with GC and safepoints in the same
+ * recording, e.g. one started with {@code -XX:StartFlightRecording}. The events are only enabled while a recording
+ * is running, and can be turned off individually in its settings.
+ * <p>
+ * Callers create the event and check {@link Event#isEnabled()} before doing anything else; when disabled the JIT
+ * removes the allocation, so the hooks cost nothing.
+ */
+public final class TransportEvents {
+    private TransportEvents() { }
+
+    @Name("org.jgroups.netty.Connect")
+    @Label("Connect")
+    @Description("Connection to a member established, or failed to establish")
+    @Category({"JGroups", "Netty"})
+    @StackTrace(false)
+    public static class Connect extends Event {
+        @Label("Peer")
+        public String peer;
+        @Label("Inbound")
+        @Description("Whether the member connected to us")
+        public boolean inbound;
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name("org.jgroups.netty.Disconnect")
+    @Label("Disconnect")
+    @Description("Connection to a member closed")
+    @Category({"JGroups", "Netty"})
+    @StackTrace(false)
+    public static class Disconnect extends Event {
+        @Label("Peer")
+        public String peer;
+        @Label("Inbound")
+        public boolean inbound;
+    }
+
+    @Name("org.jgroups.netty.WritabilityChanged")
+    @Label("Writability Changed")
+    @Description("Outbound buffer of a connection crossed its high or low water mark")
+    @Category({"JGroups", "Netty"})
+    @StackTrace(false)
+    public static class WritabilityChanged extends Event {
+        @Label("Peer")
+        public String peer;
+        @Label("Writable")
+        public boolean writable;
+        @Label("Pending Bytes")
+        @DataAmount
+        public long pendingBytes;
+    }
+
+    @Name("org.jgroups.netty.PeerUnreachable")
+    @Label("Peer Unreachable")
+    @Description("Member considered dead by the connection health checks, and suspected")
+    @Category({"JGroups", "Netty"})
+    @StackTrace(false)
+    public static class PeerUnreachable extends Event {
+        @Label("Peer")
+        public String peer;
+        @Label("Reason")
+        public String reason;
+    }
+
+    @Name("org.jgroups.netty.ReadsPaused")
+    @Label("Reads Paused")
+    @Description("Reads from a member paused because its backlog of regular messages exceeded the high watermark, " +
+          "lasting until it dropped below the low watermark")
+    @Category({"JGroups", "Netty"})
+    @StackTrace(false)
+    public static class ReadsPaused extends Event {
+        @Label("Sender")
+        public String sender;
+        @Label("Backlog")
+        @DataAmount
+        public long backlogBytes;
+        @Label("Backlog Messages")
+        public int backlogMessages;
+    }
+
+    @Name("org.jgroups.netty.AsyncMessageCompletion")
+    @Label("Async Message Completion")
+    @Description("Regular message that was passed up and completed asynchronously, blocking further messages of its " +
+          "sender in the meantime")
+    @Category({"JGroups", "Netty"})
+    @StackTrace(false)
+    public static class AsyncMessageCompletion extends Event {
+        @Label("Sender")
+        public String sender;
+        @Label("Size")
+        @DataAmount
+        public int size;
+    }
+
+    @Name("org.jgroups.netty.LargeFrame")
+    @Label("Large Frame")
+    @Description("Frame at or above the configured threshold sent to or received from a member")
+    @Category({"JGroups", "Netty"})
+    @StackTrace(false)
+    public static class LargeFrame extends Event {
+        @Label("Peer")
+        public String peer;
+        @Label("Outbound")
+        public boolean outbound;
+        @Label("Size")
+        @DataAmount
+        public int size;
+    }
+}
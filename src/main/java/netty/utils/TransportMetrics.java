@@ -0,0 +1,261 @@
+package netty.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jgroups.stack.IpAddress;
+
+/**
+ * I/O counters of a transport, per peer and in total. All counters are {@link LongAdder}s updated from the event
+ * loops without any coordination, and only summed up when read, so they can be left enabled in production.
+ */
+public class TransportMetrics {
+    private final Map<IpAddress, PeerMetrics> peers = new ConcurrentHashMap<>();
+    private final LongAdder connectAttempts = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final SizeHistogram framesInSizes = new SizeHistogram();
+    private final SizeHistogram framesOutSizes = new SizeHistogram();
+    private final int largeFrameThreshold;
+
+    /**
+     * @param largeFrameThreshold frames of at least this size are recorded as {@link TransportEvents.LargeFrame}
+     *                            flight recorder events
+     */
+    public TransportMetrics(int largeFrameThreshold) {
+        this.largeFrameThreshold = largeFrameThreshold;
+    }
+
+    public PeerMetrics peer(IpAddress address) {
+        return peers.computeIfAbsent(address, PeerMetrics::new);
+    }
+
+    public Map<IpAddress, PeerMetrics> peers() {
+        return peers;
+    }
+
+    public void connectAttempted() {
+        connectAttempts.increment();
+    }
+
+    public void connectFailed() {
+        connectFailures.increment();
+    }
+
+    void frameReceived(PeerMetrics peer, int size) {
+        framesInSizes.record(size);
+        if (peer != null) {
+            peer.framesIn.increment();
+            peer.bytesIn.add(size);
+        }
+        if (size >= largeFrameThreshold) {
+            largeFrame(peer, size, false);
+        }
+    }
+
+    void frameSent(PeerMetrics peer, int size) {
+        framesOutSizes.record(size);
+        if (peer != null) {
+            peer.framesOut.increment();
+            peer.bytesOut.add(size);
+        }
+        if (size >= largeFrameThreshold) {
+            largeFrame(peer, size, true);
+        }
+    }
+
+    private static void largeFrame(PeerMetrics peer, int size, boolean outbound) {
+        TransportEvents.LargeFrame event = new TransportEvents.LargeFrame();
+        if (event.isEnabled()) {
+            event.peer = peer != null ? peer.address().toString() : null;
+            event.outbound = outbound;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    public long connectAttempts() {
+        return connectAttempts.sum();
+    }
+
+    public long connectFailures() {
+        return connectFailures.sum();
+    }
+
+    public long bytesIn() {
+        return peers.values().stream().mapToLong(PeerMetrics::bytesIn).sum();
+    }
+
+    public long bytesOut() {
+        return peers.values().stream().mapToLong(PeerMetrics::bytesOut).sum();
+    }
+
+    public long framesIn() {
+        return framesInSizes.count();
+    }
+
+    public long framesOut() {
+        return framesOutSizes.count();
+    }
+
+    public long writabilityChanges() {
+        return peers.values().stream().mapToLong(PeerMetrics::writabilityChanges).sum();
+    }
+
+    public long readPauses() {
+        return peers.values().stream().mapToLong(PeerMetrics::readPauses).sum();
+    }
+
+    public long readPausedNanos() {
+        return peers.values().stream().mapToLong(PeerMetrics::readPausedNanos).sum();
+    }
+
+    public SizeHistogram framesInSizes() {
+        return framesInSizes;
+    }
+
+    public SizeHistogram framesOutSizes() {
+        return framesOutSizes;
+    }
+
+    public void reset() {
+        // Channels hold on to their peer's metrics, so they are reset rather than removed
+        peers.values().forEach(PeerMetrics::reset);
+        connectAttempts.reset();
+        connectFailures.reset();
+        framesInSizes.reset();
+        framesOutSizes.reset();
+    }
+
+    public static class PeerMetrics {
+        private final IpAddress address;
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder framesIn = new LongAdder();
+        private final LongAdder framesOut = new LongAdder();
+        private final LongAdder writabilityChanges = new LongAdder();
+        private final LongAdder readPauses = new LongAdder();
+        private final LongAdder readPausedNanos = new LongAdder();
+        private volatile long pausedSince;
+
+        PeerMetrics(IpAddress address) {
+            this.address = address;
+        }
+
+        public IpAddress address() {
+            return address;
+        }
+
+        void writabilityChanged() {
+            writabilityChanges.increment();
+        }
+
+        /** Called when reads from this peer are paused or resumed because of the delivery backlog */
+        public void readPaused(boolean paused) {
+            if (paused) {
+                readPauses.increment();
+                pausedSince = System.nanoTime();
+            } else {
+                long since = pausedSince;
+                if (since != 0) {
+                    pausedSince = 0;
+                    readPausedNanos.add(System.nanoTime() - since);
+                }
+            }
+        }
+
+        public long bytesIn() {
+            return bytesIn.sum();
+        }
+
+        public long bytesOut() {
+            return bytesOut.sum();
+        }
+
+        public long framesIn() {
+            return framesIn.sum();
+        }
+
+        public long framesOut() {
+            return framesOut.sum();
+        }
+
+        public long writabilityChanges() {
+            return writabilityChanges.sum();
+        }
+
+        public long readPauses() {
+            return readPauses.sum();
+        }
+
+        /** Total time reads were paused, including the current pause if any */
+        public long readPausedNanos() {
+            long since = pausedSince;
+            return readPausedNanos.sum() + (since != 0 ? System.nanoTime() - since : 0);
+        }
+
+        void reset() {
+            bytesIn.reset();
+            bytesOut.reset();
+            framesIn.reset();
+            framesOut.reset();
+            writabilityChanges.reset();
+            readPauses.reset();
+            readPausedNanos.reset();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: bytes in=%d out=%d frames in=%d out=%d writability changes=%d read pauses=%d " +
+                        "paused=%dms", address, bytesIn(), bytesOut(), framesIn(), framesOut(), writabilityChanges(),
+                  readPauses(), readPausedNanos() / 1_000_000);
+        }
+    }
+
+    /**
+     * Counts of sizes in power of two buckets, bucket n holding sizes in [2^(n-1), 2^n)
+     */
+    public static class SizeHistogram {
+        private final LongAdder[] buckets = new LongAdder[Integer.SIZE + 1];
+
+        SizeHistogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(int size) {
+            buckets[Integer.SIZE - Integer.numberOfLeadingZeros(size)].increment();
+        }
+
+        public long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < buckets.length; i++) {
+                long count = buckets[i].sum();
+                if (count > 0) {
+                    if (sb.length() > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append('<').append(1L << i)
+                          .append(": ").append(count);
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
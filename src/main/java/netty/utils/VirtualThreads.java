@@ -0,0 +1,24 @@
+package netty.utils;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates executors that run each task on a virtual thread. This is the version for Java 11 to 20, where virtual
+ * threads don't exist; the jar replaces it with the one in {@code META-INF/versions/21} on Java 21 or later.
+ */
+public final class VirtualThreads {
+    private VirtualThreads() { }
+
+    public static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * @param name prefix of the names of the threads, followed by a counter
+     * @throws UnsupportedOperationException if the runtime has no virtual threads
+     */
+    public static ExecutorService newExecutor(String name) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or later, running on "
+              + System.getProperty("java.version"));
+    }
+}
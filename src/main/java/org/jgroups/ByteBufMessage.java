@@ -3,17 +3,19 @@ package org.jgroups;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.function.Supplier;
 
 import org.jgroups.util.ByteArray;
 import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.ByteBufStreams;
 import org.jgroups.util.ByteBufferInputStream;
+import org.jgroups.util.PayloadCleaner;
 import org.jgroups.util.Util;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import netty.utils.ExposedByteBufInputStream;
 
@@ -23,6 +25,8 @@ public class ByteBufMessage extends BaseMessage implements Refcountable<ByteBufM
    private final ByteBufAllocator allocator;
    private ByteBuf buf;
    private byte[] array;
+   // Set on a detached message and its copies, the payload is released once none of them is reachable anymore
+   private Object payloadOwner;
 
    public ByteBufMessage(ByteBufAllocator allocator, ByteBuf buf) {
       this(allocator);
@@ -33,6 +37,11 @@ public class ByteBufMessage extends BaseMessage implements Refcountable<ByteBufM
       this.allocator = allocator;
    }
 
+   /**
+    * The payload of a regular message that was received ignores releases and is only released once the message and
+    * all copies of it were garbage collected, see {@link #detach()}. A slice of it kept after the message has to be
+    * copied
+    */
    public ByteBuf getBuf() {
       return buf;
    }
@@ -52,8 +61,16 @@ public class ByteBufMessage extends BaseMessage implements Refcountable<ByteBufM
       return buf != null;
    }
 
+   /**
+    * Returns the backing array of a heap buffer without copying it, starting at {@link #getOffset()}. It is only valid
+    * as long as the message holds its reference, for a received regular message as long as the message is reachable.
+    * The payload of a direct buffer is copied into a new array.
+    */
    @Override
    public byte[] getArray() {
+      if (buf != null && buf.hasArray()) {
+         return buf.array();
+      }
       if (array == null && buf != null) {
          array = new byte[buf.readableBytes()];
          buf.getBytes(buf.readerIndex(), array, 0, buf.readableBytes());
@@ -63,7 +80,7 @@ public class ByteBufMessage extends BaseMessage implements Refcountable<ByteBufM
 
    @Override
    public int getOffset() {
-      return 0;
+      return buf != null && buf.hasArray() ? buf.arrayOffset() + buf.readerIndex() : 0;
    }
 
    @Override
@@ -94,10 +111,7 @@ public class ByteBufMessage extends BaseMessage implements Refcountable<ByteBufM
    @Override
    public void writePayload(DataOutput out) throws IOException {
       out.writeInt(buf.readableBytes());
-      buf.forEachByte(b -> {
-         out.writeByte(b);
-         return true;
-      });
+      ByteBufStreams.write(buf, out);
    }
 
    @Override
@@ -110,7 +124,8 @@ public class ByteBufMessage extends BaseMessage implements Refcountable<ByteBufM
          ByteBuf buffer = ((ExposedByteBufInputStream) in).getBuf();
          int endOffset = ((ExposedByteBufInputStream) in).getEndReadIndex();
          int readIndex = buffer.readerIndex();
-         assert length == endOffset - readIndex;
+         // The frame may hold further messages of a list sent by a bundler
+         assert length <= endOffset - readIndex;
          buf = buffer.retainedSlice(readIndex, length);
          // Advance buffer
          buffer.readerIndex(readIndex + length);
@@ -119,14 +134,7 @@ public class ByteBufMessage extends BaseMessage implements Refcountable<ByteBufM
       } else if (in instanceof ByteBufferInputStream) {
          buf = fromByteBufferInputStream((ByteBufferInputStream) in, length);
       } else {
-         buf = allocator.buffer(length, length);
-         if (in instanceof InputStream) {
-            buf.writeBytes((InputStream) in, length);
-         } else {
-            for (int i = 0; i < length; ++i) {
-               buf.writeByte(in.readByte());
-            }
-         }
+         buf = ByteBufStreams.read(in, length, allocator);
       }
    }
 
@@ -137,7 +145,8 @@ public class ByteBufMessage extends BaseMessage implements Refcountable<ByteBufM
 
    protected int sizeOfPayload() {
       int retval=Global.INT_SIZE; // length
-      buf.readableBytes();         // number of bytes in the array
+      if(buf != null)
+         retval+=buf.readableBytes(); // number of bytes in the array
       return retval;
    }
 
@@ -199,18 +208,54 @@ public class ByteBufMessage extends BaseMessage implements Refcountable<ByteBufM
    protected Message copyPayload(Message copy) {
       assert ((ByteBufMessage) copy).buf == null;
       ((ByteBufMessage) copy).buf = buf.retainedSlice();
+      ((ByteBufMessage) copy).payloadOwner = payloadOwner;
       return super.copyPayload(copy);
    }
 
+   /**
+    * Returns a copy of this message whose payload is copied to the heap, for code that serializes the message later and
+    * never releases it, such as a bundler. A payload on the heap without a pool doesn't have to be released, so then
+    * this message itself is returned
+    */
+   public ByteBufMessage copyToHeap() {
+      if (buf == null || ByteBufStreams.isUnpooledHeap(buf)) {
+         return this;
+      }
+      ByteBufMessage copy = (ByteBufMessage) copy(false, true);
+      copy.buf = Unpooled.wrappedBuffer(ByteBufUtil.getBytes(buf));
+      return copy;
+   }
+
+   /**
+    * Returns a copy of this message that takes over the payload without copying it, for a message protocols may still
+    * hold on to after the transport released it, such as a reliable protocol keeping it until the messages sent before
+    * it arrived. The payload of the copy ignores releases and is released by {@link PayloadCleaner} once the copy and
+    * all copies of it are unreachable. This message is left without a payload and must not be released anymore
+    */
+   public ByteBufMessage detach() {
+      ByteBufMessage copy = (ByteBufMessage) copy(false, true);
+      if (buf != null) {
+         copy.payloadOwner = new Object();
+         copy.buf = PayloadCleaner.releaseWhenUnreachable(copy.payloadOwner, buf);
+         buf = null;
+         array = null;
+      }
+      return copy;
+   }
+
    @Override
    public ByteBufMessage incr() {
-      buf.retain();
+      if (buf != null) {
+         buf.retain();
+      }
       return this;
    }
 
    @Override
    public ByteBufMessage decr() {
-      buf.release();
+      if (buf != null) {
+         buf.release();
+      }
       return this;
    }
 }
@@ -0,0 +1,308 @@
+package org.jgroups;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.jgroups.util.ByteArray;
+import org.jgroups.util.ByteBufStreams;
+import org.jgroups.util.PayloadCleaner;
+import org.jgroups.util.Util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import netty.utils.ExposedByteBufInputStream;
+
+/**
+ * Message whose payload is an ordered list of {@link ByteBuf} components, e.g. a small header and a large pooled
+ * body, which are written to the socket with a single gather write instead of being merged first.
+ * <p>
+ * The payload is the number of components and their lengths, followed by their bytes. On receive each component is
+ * a slice of the frame it arrived in, so the components have the same boundaries as on the sender.
+ * <p>
+ * Like {@link ByteBufMessage}, the components are released once the message was sent or, on receive, once it was
+ * delivered, or for a regular message once it was garbage collected (see {@link #detach()}). {@link #hasArray()} is
+ * false so protocols don't ask for an array: {@link #getArray()} has to copy all components into one.
+ */
+public class CompositeByteBufMessage extends BaseMessage implements Refcountable<CompositeByteBufMessage> {
+   static public final short COMPOSITE_BYTE_BUF_MSG = 1235;
+
+   private final ByteBufAllocator allocator;
+   private final List<ByteBuf> components;
+   private byte[] array;
+   // Set on a detached message and its copies, the components are released once none of them is reachable anymore
+   private Object payloadOwner;
+
+   public CompositeByteBufMessage(ByteBufAllocator allocator, ByteBuf... components) {
+      this.allocator = allocator;
+      this.components = new ArrayList<>(Math.max(components.length, 2));
+      Collections.addAll(this.components, components);
+   }
+
+   public CompositeByteBufMessage(ByteBufAllocator allocator) {
+      this(allocator, new ByteBuf[0]);
+   }
+
+   /**
+    * Appends a component to the payload, whose ownership passes to this message
+    */
+   public CompositeByteBufMessage addComponent(ByteBuf component) {
+      components.add(component);
+      array = null;
+      return this;
+   }
+
+   /**
+    * @return the components of the payload, in order. They are still owned by this message
+    */
+   public List<ByteBuf> components() {
+      return Collections.unmodifiableList(components);
+   }
+
+   public int numComponents() {
+      return components.size();
+   }
+
+   public ByteBuf component(int index) {
+      return components.get(index);
+   }
+
+   @Override
+   public short getType() {
+      return COMPOSITE_BYTE_BUF_MSG;
+   }
+
+   @Override
+   public boolean hasPayload() {
+      return !components.isEmpty();
+   }
+
+   @Override
+   public boolean hasArray() {
+      return false;
+   }
+
+   @Override
+   public byte[] getArray() {
+      if (array == null && !components.isEmpty()) {
+         array = new byte[getLength()];
+         int offset = 0;
+         for (ByteBuf component : components) {
+            component.getBytes(component.readerIndex(), array, offset, component.readableBytes());
+            offset += component.readableBytes();
+         }
+      }
+      return array;
+   }
+
+   @Override
+   public int getOffset() {
+      return 0;
+   }
+
+   @Override
+   public int getLength() {
+      int length = 0;
+      for (ByteBuf component : components) {
+         length += component.readableBytes();
+      }
+      return length;
+   }
+
+   @Override
+   public Message setArray(byte[] b, int offset, int length) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public Message setArray(ByteArray buf) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public <T> T getObject() {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public Message setObject(Object obj) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void writePayload(DataOutput out) throws IOException {
+      writePayloadHeader(out);
+      for (ByteBuf component : components) {
+         ByteBufStreams.write(component, out);
+      }
+   }
+
+   /**
+    * Writes the part of the payload that precedes the bytes of the components
+    */
+   public void writePayloadHeader(DataOutput out) throws IOException {
+      out.writeInt(components.size());
+      for (ByteBuf component : components) {
+         out.writeInt(component.readableBytes());
+      }
+   }
+
+   public int payloadHeaderSize() {
+      return Global.INT_SIZE * (1 + components.size());
+   }
+
+   @Override
+   public void readPayload(DataInput in) throws IOException {
+      int count = in.readInt();
+      if (count < 0) {
+         throw new IOException("Invalid number of components: " + count);
+      }
+      // Grown as the lengths are read rather than sized by the count, which comes from the peer, so a bogus count runs
+      // out of input instead of memory
+      int[] lengths = new int[Math.min(count, 16)];
+      for (int i = 0; i < count; i++) {
+         if (i == lengths.length) {
+            lengths = Arrays.copyOf(lengths, (int) Math.min(count, 2L * i));
+         }
+         lengths[i] = in.readInt();
+      }
+      try {
+         for (int i = 0; i < count; i++) {
+            components.add(readComponent(in, lengths[i]));
+         }
+      } catch (Throwable t) {
+         for (ByteBuf component : components) {
+            component.release();
+         }
+         components.clear();
+         throw t;
+      }
+   }
+
+   private ByteBuf readComponent(DataInput in, int length) throws IOException {
+      if (length < 0) {
+         throw new IOException("Invalid component length: " + length);
+      }
+      if (in instanceof ExposedByteBufInputStream) {
+         ByteBuf buffer = ((ExposedByteBufInputStream) in).getBuf();
+         int remaining = ((ExposedByteBufInputStream) in).getEndReadIndex() - buffer.readerIndex();
+         if (length > remaining) {
+            throw new EOFException("Component of " + length + " bytes exceeds the " + remaining + " bytes left");
+         }
+         ByteBuf component = buffer.retainedSlice(buffer.readerIndex(), length);
+         buffer.skipBytes(length);
+         return component;
+      }
+      return ByteBufStreams.read(in, length, allocator);
+   }
+
+   @Override
+   public int size() {
+      return super.size() + sizeOfPayload();
+   }
+
+   protected int sizeOfPayload() {
+      return payloadHeaderSize() + getLength();
+   }
+
+   public int nonPayloadSize() {
+      return super.size();
+   }
+
+   public void writeNonPayload(DataOutput out) throws IOException {
+      byte leading=0;
+
+      if(dest != null)
+         leading= Util.setFlag(leading, DEST_SET);
+
+      if(sender != null)
+         leading=Util.setFlag(leading, SRC_SET);
+
+      // write the leading byte first
+      out.writeByte(leading);
+
+      // write the flags (e.g. OOB, LOW_PRIO), skip the transient flags
+      out.writeShort(flags);
+
+      // write the dest_addr
+      if(dest != null)
+         Util.writeAddress(dest, out);
+
+      // write the src_addr
+      if(sender != null)
+         Util.writeAddress(sender, out);
+
+      // write the headers
+      writeHeaders(this.headers, out, (short[])null);
+   }
+
+   @Override
+   public Supplier<? extends Message> create() {
+      return () -> new CompositeByteBufMessage(allocator);
+   }
+
+   @Override
+   protected Message copyPayload(Message copy) {
+      assert ((CompositeByteBufMessage) copy).components.isEmpty();
+      for (ByteBuf component : components) {
+         ((CompositeByteBufMessage) copy).components.add(component.retainedSlice());
+      }
+      ((CompositeByteBufMessage) copy).payloadOwner = payloadOwner;
+      return super.copyPayload(copy);
+   }
+
+   /**
+    * Same as {@link ByteBufMessage#copyToHeap()}, copying each component that isn't on the heap without a pool
+    */
+   public CompositeByteBufMessage copyToHeap() {
+      if (components.stream().allMatch(ByteBufStreams::isUnpooledHeap)) {
+         return this;
+      }
+      CompositeByteBufMessage copy = (CompositeByteBufMessage) copy(false, true);
+      for (ByteBuf component : components) {
+         copy.components.add(ByteBufStreams.isUnpooledHeap(component) ? component.retainedSlice()
+               : Unpooled.wrappedBuffer(ByteBufUtil.getBytes(component)));
+      }
+      return copy;
+   }
+
+   /**
+    * Same as {@link ByteBufMessage#detach()}
+    */
+   public CompositeByteBufMessage detach() {
+      CompositeByteBufMessage copy = (CompositeByteBufMessage) copy(false, true);
+      if (!components.isEmpty()) {
+         copy.payloadOwner = new Object();
+         for (ByteBuf component : components) {
+            copy.components.add(PayloadCleaner.releaseWhenUnreachable(copy.payloadOwner, component));
+         }
+         components.clear();
+         array = null;
+      }
+      return copy;
+   }
+
+   @Override
+   public CompositeByteBufMessage incr() {
+      for (ByteBuf component : components) {
+         component.retain();
+      }
+      return this;
+   }
+
+   @Override
+   public CompositeByteBufMessage decr() {
+      for (ByteBuf component : components) {
+         component.release();
+      }
+      return this;
+   }
+}
@@ -0,0 +1,318 @@
+package org.jgroups;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+import org.jgroups.util.ByteArray;
+import org.jgroups.util.ByteBufStreams;
+import org.jgroups.util.PayloadCleaner;
+import org.jgroups.util.Util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import netty.utils.ExposedByteBufInputStream;
+import netty.utils.FrameFormat;
+
+/**
+ * Message whose payload is a region of a file. The transport writes it with a {@link io.netty.channel.FileRegion}
+ * after the frame header, so the kernel copies the file straight to the socket ({@code sendfile} on epoll) without
+ * reading it into the heap or a direct buffer first.
+ * <p>
+ * A region is sent as a single frame, so it is limited to about 1GB: larger files are sent as several messages.
+ * On the receiver the payload is a {@link ByteBuf} like the one of a {@link ByteBufMessage}, a slice of the frame it
+ * arrived in that is never copied. It is released once the message was delivered or, for a regular message such as
+ * a state transfer, once it was garbage collected (see {@link #detach()}). Set {@code receive_spill_threshold} on the
+ * transport to have large frames assembled in a memory-mapped file rather than in direct memory, which then backs
+ * the payload until it is released.
+ */
+public class FileRegionMessage extends BaseMessage implements Refcountable<FileRegionMessage> {
+   static public final short FILE_REGION_MSG = 1236;
+   // Leaves room for the frame header, which is part of the same frame
+   static public final int MAX_LENGTH = FrameFormat.LENGTH_MASK - 64 * 1024;
+
+   private final ByteBufAllocator allocator;
+   // Set on the sender
+   private Path path;
+   private long offset;
+   private int length;
+   // Set on the receiver
+   private ByteBuf buf;
+   // Set on a detached message and its copies, the payload is released once none of them is reachable anymore
+   private Object payloadOwner;
+
+   /**
+    * @param allocator allocates the buffer the region is read into when it can't be sent as a
+    *                  {@link io.netty.channel.FileRegion} or its array is asked for, e.g. the one of the transport
+    * @throws IOException if the file can't be read or is shorter than the region
+    */
+   public FileRegionMessage(ByteBufAllocator allocator, Path path, long offset, int length) throws IOException {
+      this(allocator);
+      if (offset < 0 || length < 0 || length > MAX_LENGTH) {
+         throw new IllegalArgumentException("Invalid region of " + length + " bytes at " + offset + ", regions are " +
+               "limited to " + MAX_LENGTH + " bytes");
+      }
+      if (!Files.isReadable(path) || Files.size(path) < offset + length) {
+         throw new IOException(path + " isn't readable or shorter than " + (offset + length) + " bytes");
+      }
+      this.path = path;
+      this.offset = offset;
+      this.length = length;
+   }
+
+   public FileRegionMessage(ByteBufAllocator allocator) {
+      this.allocator = allocator;
+   }
+
+   /**
+    * @return the file of the region, or null on the receiver
+    */
+   public Path getPath() {
+      return path;
+   }
+
+   public long getRegionOffset() {
+      return offset;
+   }
+
+   /**
+    * @return the received payload, or null on the sender
+    */
+   public ByteBuf getBuf() {
+      return buf;
+   }
+
+   /**
+    * Reads the region into a new buffer, for transports that can't write a {@link io.netty.channel.FileRegion}
+    */
+   public ByteBuf readRegion(ByteBufAllocator alloc) throws IOException {
+      ByteBuf content = alloc.directBuffer(length, length);
+      try (FileChannel channel = FileChannel.open(path)) {
+         while (content.isWritable()) {
+            int read = content.writeBytes(channel, offset + content.writerIndex(), content.writableBytes());
+            if (read < 0) {
+               throw new IOException(path + " was truncated while reading it");
+            }
+         }
+         return content;
+      } catch (Throwable t) {
+         content.release();
+         throw t;
+      }
+   }
+
+   @Override
+   public short getType() {
+      return FILE_REGION_MSG;
+   }
+
+   @Override
+   public boolean hasPayload() {
+      return path != null || buf != null;
+   }
+
+   @Override
+   public boolean hasArray() {
+      return false;
+   }
+
+   @Override
+   public byte[] getArray() {
+      if (buf != null) {
+         byte[] array = new byte[buf.readableBytes()];
+         buf.getBytes(buf.readerIndex(), array);
+         return array;
+      }
+      if (path == null) {
+         return null;
+      }
+      ByteBuf content = null;
+      try {
+         content = readRegion(allocator);
+         byte[] array = new byte[length];
+         content.getBytes(0, array);
+         return array;
+      } catch (IOException e) {
+         throw new IllegalStateException(e);
+      } finally {
+         if (content != null) {
+            content.release();
+         }
+      }
+   }
+
+   @Override
+   public int getOffset() {
+      return 0;
+   }
+
+   @Override
+   public int getLength() {
+      return buf != null ? buf.readableBytes() : length;
+   }
+
+   @Override
+   public Message setArray(byte[] b, int offset, int length) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public Message setArray(ByteArray buf) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public <T> T getObject() {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public Message setObject(Object obj) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void writePayload(DataOutput out) throws IOException {
+      out.writeInt(getLength());
+      if (buf != null) {
+         ByteBufStreams.write(buf, out);
+      } else if (path != null) {
+         ByteBuffer chunk = ByteBuffer.allocate(Math.min(length, 64 * 1024));
+         try (FileChannel channel = FileChannel.open(path)) {
+            for (long position = offset; position < offset + length; ) {
+               chunk.clear().limit((int) Math.min(chunk.capacity(), offset + length - position));
+               int read = channel.read(chunk, position);
+               if (read < 0) {
+                  throw new IOException(path + " was truncated while reading it");
+               }
+               out.write(chunk.array(), 0, read);
+               position += read;
+            }
+         }
+      }
+   }
+
+   @Override
+   public void readPayload(DataInput in) throws IOException {
+      int length = in.readInt();
+      if (in instanceof ExposedByteBufInputStream) {
+         ByteBuf buffer = ((ExposedByteBufInputStream) in).getBuf();
+         buf = buffer.retainedSlice(buffer.readerIndex(), length);
+         buffer.skipBytes(length);
+      } else {
+         buf = ByteBufStreams.read(in, length, allocator);
+      }
+   }
+
+   @Override
+   public int size() {
+      return super.size() + sizeOfPayload();
+   }
+
+   protected int sizeOfPayload() {
+      return payloadHeaderSize() + getLength();
+   }
+
+   public int nonPayloadSize() {
+      return super.size();
+   }
+
+   public int payloadHeaderSize() {
+      return Global.INT_SIZE;
+   }
+
+   public void writeNonPayload(DataOutput out) throws IOException {
+      byte leading=0;
+
+      if(dest != null)
+         leading= Util.setFlag(leading, DEST_SET);
+
+      if(sender != null)
+         leading=Util.setFlag(leading, SRC_SET);
+
+      // write the leading byte first
+      out.writeByte(leading);
+
+      // write the flags (e.g. OOB, LOW_PRIO), skip the transient flags
+      out.writeShort(flags);
+
+      // write the dest_addr
+      if(dest != null)
+         Util.writeAddress(dest, out);
+
+      // write the src_addr
+      if(sender != null)
+         Util.writeAddress(sender, out);
+
+      // write the headers
+      writeHeaders(this.headers, out, (short[])null);
+   }
+
+   /**
+    * Writes the part of the payload that precedes the bytes of the region
+    */
+   public void writePayloadHeader(DataOutput out) throws IOException {
+      out.writeInt(getLength());
+   }
+
+   @Override
+   public Supplier<? extends Message> create() {
+      return () -> new FileRegionMessage(allocator);
+   }
+
+   @Override
+   protected Message copyPayload(Message copy) {
+      FileRegionMessage region = (FileRegionMessage) copy;
+      region.path = path;
+      region.offset = offset;
+      region.length = length;
+      if (buf != null) {
+         region.buf = buf.retainedSlice();
+      }
+      region.payloadOwner = payloadOwner;
+      return super.copyPayload(copy);
+   }
+
+   /**
+    * Same as {@link ByteBufMessage#detach()}, for a region that was received
+    */
+   public FileRegionMessage detach() {
+      FileRegionMessage copy = (FileRegionMessage) copy(false, true);
+      copy.path = path;
+      copy.offset = offset;
+      copy.length = length;
+      if (buf != null) {
+         copy.payloadOwner = new Object();
+         copy.buf = PayloadCleaner.releaseWhenUnreachable(copy.payloadOwner, buf);
+         buf = null;
+      }
+      return copy;
+   }
+
+   @Override
+   public FileRegionMessage incr() {
+      if (buf != null) {
+         buf.retain();
+      }
+      return this;
+   }
+
+   @Override
+   public FileRegionMessage decr() {
+      if (buf != null) {
+         buf.release();
+      }
+      return this;
+   }
+
+   @Override
+   public String toString() {
+      return path != null ? super.toString() + ", region " + path + "[" + offset + ", " + (offset + length) + ")"
+            : super.toString();
+   }
+}
@@ -0,0 +1,36 @@
+package org.jgroups.blocks.cs.netty;
+
+import org.jgroups.Address;
+import org.jgroups.stack.IpAddress;
+
+import io.netty.channel.Channel;
+
+/**
+ * A member resolved to its physical address, which also remembers the channels last used to send to it, so sending
+ * to the same member again needs neither address resolution nor a lookup in the channel tables of
+ * {@link NettyConnection}. The channels are only hints: once a channel is closed it is looked up again.
+ */
+public final class Destination {
+    private final Address address;
+    private final IpAddress physicalAddress;
+    volatile Channel clientChannel;
+    volatile Channel serverChannel;
+
+    public Destination(Address address, IpAddress physicalAddress) {
+        this.address = address;
+        this.physicalAddress = physicalAddress;
+    }
+
+    public Address address() {
+        return address;
+    }
+
+    public IpAddress physicalAddress() {
+        return physicalAddress;
+    }
+
+    @Override
+    public String toString() {
+        return address + " (" + physicalAddress + ")";
+    }
+}
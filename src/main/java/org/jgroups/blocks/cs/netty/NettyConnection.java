@@ -8,38 +8,71 @@ import java.io.IOException;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import org.jgroups.Address;
 import org.jgroups.ByteBufMessage;
+import org.jgroups.CompositeByteBufMessage;
+import org.jgroups.FileRegionMessage;
 import org.jgroups.PhysicalAddress;
 import org.jgroups.Version;
 import org.jgroups.logging.Log;
 import org.jgroups.protocols.TP;
 import org.jgroups.stack.IpAddress;
+import org.jgroups.util.MessageTracer;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufOutputStream;
-import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.buffer.UnpooledHeapByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.DefaultFileRegion;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FileRegion;
 import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.unix.Errors;
+import io.netty.incubator.channel.uring.IOUringChannelOption;
+import io.netty.incubator.channel.uring.IOUringSocketChannel;
 import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.internal.ThreadExecutorMap;
 import netty.listeners.ChannelLifecycleListener;
 import netty.listeners.NettyReceiverListener;
+import netty.utils.BusyPoll;
+import netty.utils.ClockSync;
+import netty.utils.CompactFrames;
+import netty.utils.ConnectionHealth;
+import netty.utils.FlushPolicy;
+import netty.utils.FrameCompression;
+import netty.utils.FrameSpill;
+import netty.utils.IdleConnections;
 import netty.utils.PipelineChannelInitializer;
+import netty.utils.SocketTuning;
+import netty.utils.Striping;
+import netty.utils.Tls;
+import netty.utils.TransportEvents;
+import netty.utils.TransportMetrics;
 
 /***
  * @author Baizel Mathew
@@ -50,37 +83,77 @@ public class NettyConnection {
     private final Map<PhysicalAddress, Channel> clientChannelMap = new ConcurrentHashMap<>();
     private final Map<IpAddress, ChannelFuture> clientFuturesMap = new ConcurrentHashMap<>();
     private final Map<PhysicalAddress, Channel> serverChannelMap = new ConcurrentHashMap<>();
-    private final int port;
+    // Set once bound
+    private volatile int port;
     private final InetAddress bind_addr;
     private final EventLoopGroup boss_group; // Only handles incoming connections
     private final EventLoopGroup worker_group;
+    // Handles the connections opened to members, may be the worker_group
+    private final EventLoopGroup client_group;
     private final NettyReceiverListener callback;
     private final ChannelLifecycleListener clientLifecycleListener;
     private final ChannelLifecycleListener serverLifecycleListener;
     private final Class<? extends ServerChannel> serverChannel;
     private final Class<? extends SocketChannel> clientChannel;
+    private final ByteBufAllocator allocator;
+    // Null unless the worker event loops busy poll
+    private final BusyPoll busyPoll;
+    private final FlushPolicy flushPolicy;
+    private final FrameCompression compression;
+    private final CompactFrames compact;
+    private final FrameSpill spill;
+    // Whether channels can write a FileRegion, which neither TLS nor io_uring support
+    private final boolean fileRegions;
+    private final Tls tls;
+    private final TransportMetrics metrics;
+    private final ClockSync clockSync;
+    // Null unless idle connections are closed
+    private final IdleConnections idleConnections;
+    private final ConnectionHealth health;
+    private final Striping striping;
+    private final SocketTuning tuning;
     private final Log log;
     public byte[] replyAdder = null;
 
 
-    public NettyConnection(InetAddress bind_addr, int port, NettyReceiverListener callback, Log log,
-                           EventLoopGroup bossGroup, EventLoopGroup workerGroup, Class<? extends ServerChannel> serverChannel,
-                           Class<? extends SocketChannel> clientChannel) {
-        this.port = port;
+    public NettyConnection(InetAddress bind_addr, NettyReceiverListener callback, Log log,
+                           EventLoopGroup bossGroup, EventLoopGroup workerGroup, EventLoopGroup clientGroup,
+                           Class<? extends ServerChannel> serverChannel,
+                           Class<? extends SocketChannel> clientChannel, ByteBufAllocator allocator,
+                           BusyPoll busyPoll, FlushPolicy flushPolicy,
+                           FrameCompression compression, CompactFrames compact, FrameSpill spill, Tls tls,
+                           TransportMetrics metrics, ClockSync clockSync, IdleConnections idleConnections,
+                           ConnectionHealth health, Striping striping, SocketTuning tuning) {
         this.bind_addr = bind_addr;
         this.callback = callback;
         this.log=log;
         this.boss_group = bossGroup;
         this.worker_group = workerGroup;
+        this.client_group = clientGroup;
         this.serverChannel = Objects.requireNonNull(serverChannel);
         this.clientChannel = Objects.requireNonNull(clientChannel);
+        this.allocator = Objects.requireNonNull(allocator);
+        this.busyPoll = busyPoll;
+        this.flushPolicy = Objects.requireNonNull(flushPolicy);
+        this.compression = Objects.requireNonNull(compression);
+        this.compact = Objects.requireNonNull(compact);
+        this.spill = Objects.requireNonNull(spill);
+        this.tls = tls;
+        this.fileRegions = tls == null && !IOUringSocketChannel.class.isAssignableFrom(clientChannel);
+        this.metrics = Objects.requireNonNull(metrics);
+        this.clockSync = Objects.requireNonNull(clockSync);
+        this.idleConnections = idleConnections;
+        this.health = Objects.requireNonNull(health);
+        this.striping = Objects.requireNonNull(striping);
+        this.tuning = Objects.requireNonNull(tuning);
 
         clientLifecycleListener = new ChannelLifecycleListener() {
             @Override
             public void channelInactive(Channel channel) {
                 IpAddress ipAddress = channel.attr(ADDRESS_ATTRIBUTE).get();
+                disconnected(channel, ipAddress, false);
                 if (ipAddress != null) {
-                    clientChannelMap.remove(ipAddress);
+                    clientChannelMap.remove(ipAddress, channel);
                 } else {
                     clientChannelMap.values().remove(channel);
                 }
@@ -99,8 +172,9 @@ public class NettyConnection {
             @Override
             public void channelInactive(Channel channel) {
                 IpAddress ipAddress = channel.attr(ADDRESS_ATTRIBUTE).get();
+                disconnected(channel, ipAddress, true);
                 if (ipAddress != null) {
-                    serverChannelMap.remove(ipAddress);
+                    serverChannelMap.remove(ipAddress, channel);
                 } else {
                     serverChannelMap.values().remove(channel);
                 }
@@ -114,14 +188,51 @@ public class NettyConnection {
             @Override
             public void channelActive(ChannelHandlerContext ctx) {
                 ctx.channel().attr(ADDRESS_WRITE_STATUS).set(Boolean.TRUE);
+                TransportEvents.Connect event = new TransportEvents.Connect();
+                if (event.isEnabled()) {
+                    // The member's address is only known once it sent its first message
+                    event.peer = String.valueOf(ctx.channel().remoteAddress());
+                    event.inbound = true;
+                    event.success = true;
+                    event.commit();
+                }
             }
         };
         configureServer();
         configureClient();
+        if (!isNativeTransport()
+              && (health.tcpUserTimeoutMillis() > 0 || health.keepAliveIntervalSeconds() > 0 || health.keepAliveCount() > 0)) {
+            log.warn("%s TCP_USER_TIMEOUT, TCP_KEEPINTVL and TCP_KEEPCNT are only set by the epoll and io_uring " +
+                  "transports", bind_addr);
+        }
+        if (tuning.notSentLowat() > 0 && !EpollSocketChannel.class.isAssignableFrom(clientChannel)) {
+            log.warn("%s TCP_NOTSENT_LOWAT is only set by the epoll transport", bind_addr);
+        }
     }
 
-    public void run() throws InterruptedException, BindException, Errors.NativeIoException {
-        serverBootstrap.bind().sync();
+    /**
+     * Listens on the port, which can be tried again with another port if it fails, as the connection is only
+     * configured once
+     *
+     * @param port the port to listen on, 0 for an ephemeral one
+     * @return the port listened on
+     */
+    public int bind(int port) throws InterruptedException, BindException, Errors.NativeIoException {
+        List<Channel> bound = new ArrayList<>();
+        try {
+            Channel primary = serverBootstrap.bind(bind_addr, port).sync().channel();
+            bound.add(primary);
+            port = ((InetSocketAddress) primary.localAddress()).getPort();
+            for (InetAddress address : striping.localAddresses()) {
+                bound.add(serverBootstrap.bind(address, port).sync().channel());
+            }
+        } catch (Exception e) {
+            // Free the port on the addresses bound already, so the next port can be tried
+            bound.forEach(Channel::close);
+            throw e;
+        }
+        this.port = port;
+        striping.listening(new IpAddress(bind_addr, port));
 
         try {
             ByteArrayOutputStream replyAddByteStream = new ByteArrayOutputStream();
@@ -132,9 +243,27 @@ public class NettyConnection {
             //Nodes will have to use two channels per connection
             e.printStackTrace();
         }
+        return port;
+    }
+
+    /**
+     * Opens a connection to the member ahead of the first message, unless one is open or being opened already
+     */
+    public void connect(IpAddress addr) {
+        if (!clientChannelMap.containsKey(addr)) {
+            connectAndSend(addr, ch -> { });
+        }
     }
 
     public final void send(IpAddress destAddr, boolean oob, ByteBufMessage msg) {
+        send(destAddr, oob, ch -> packAndFlushToChannel(ch, msg));
+    }
+
+    public final void send(IpAddress destAddr, boolean oob, CompositeByteBufMessage msg) {
+        send(destAddr, oob, ch -> packAndFlushToChannel(ch, msg));
+    }
+
+    private void send(IpAddress destAddr, boolean oob, Consumer<Channel> packer) {
         Channel opened = null;
         if (oob) {
             // OOB messages use the client socket until the server finally gets its connected client
@@ -147,26 +276,45 @@ public class NettyConnection {
         }
         if (opened != null) {
             if (opened.eventLoop().inEventLoop()) {
-                packAndFlushToChannel(opened, msg);
+                packer.accept(opened);
             } else {
                 Channel finalChannel = opened;
-                opened.eventLoop().submit(() -> packAndFlushToChannel(finalChannel, msg));
+                opened.eventLoop().submit(() -> packer.accept(finalChannel));
             }
         }
         else
-            connectAndSend(destAddr, msg);
+            connectAndSend(destAddr, packer);
     }
 
     public static AttributeKey<IpAddress> ADDRESS_ATTRIBUTE = AttributeKey.newInstance("jgroups-ipaddress");
     // Unfortunately it is possible for write status to send two writeable messages in a row, this attribute
     // store the last status update we sent and will prevent us from sending duplicate statuses
     public static AttributeKey<Boolean> ADDRESS_WRITE_STATUS = AttributeKey.newInstance("jgroups-write-status");
+    // Set once a channel was registered in the channel tables, so one replaced by a newer channel isn't registered again
+    private static final AttributeKey<Boolean> REGISTERED = AttributeKey.newInstance("jgroups-registered");
+    // Set on a channel replaced by a newer one in the channel tables, which is closed by the member
+    private static final AttributeKey<Boolean> REPLACED = AttributeKey.newInstance("jgroups-replaced");
+    /** The path of a connection to or from a member that isn't its primary connection, see {@link Striping} */
+    public static final AttributeKey<Integer> PATH_ATTRIBUTE = AttributeKey.newInstance("jgroups-path");
 
     public final void connectAndSend(IpAddress addr, ByteBufMessage msg) {
         connectAndSend(addr, ch -> packAndFlushToChannel(ch, msg));
     }
 
+    public final void connectAndSend(IpAddress addr, CompositeByteBufMessage msg) {
+        connectAndSend(addr, ch -> packAndFlushToChannel(ch, msg));
+    }
+
     private void connectAndSend(IpAddress addr, Consumer<Channel> consumer) {
+        connectAndSend(addr, consumer, null);
+    }
+
+    /**
+     * @param failed invoked instead of the consumer if the connection can't be opened, may be null. It must release
+     *               whatever the consumer would have passed on to the channel, such as the frame of a member that is
+     *               down while discovery still probes its address
+     */
+    private void connectAndSend(IpAddress addr, Consumer<Channel> consumer, Runnable failed) {
         ChannelFuture cf = openNewClientChannel(addr);
         cf.addListener((ChannelFutureListener) channelFuture -> {
             if (channelFuture.isSuccess()) {
@@ -176,7 +324,11 @@ public class NettyConnection {
                 consumer.accept(ch);
                 updateMap(ch, addr, false);
             } else {
+                metrics.connectFailed();
                 log.trace("Unable to connect to " + addr, channelFuture.cause());
+                if (failed != null) {
+                    failed.run();
+                }
             }
             clientFuturesMap.remove(addr);
         });
@@ -189,14 +341,86 @@ public class NettyConnection {
             if (addedChannel != null) {
                 return addedChannel.newSucceededFuture();
             }
-            return clientBootstrap.connect(new InetSocketAddress(addr.getIpAddress(), addr.getPort()));
+            metrics.connectAttempted();
+            TransportEvents.Connect event = new TransportEvents.Connect();
+            if (!event.isEnabled()) {
+                return clientBootstrap.connect(new InetSocketAddress(addr.getIpAddress(), addr.getPort()));
+            }
+            event.begin();
+            ChannelFuture future = clientBootstrap.connect(new InetSocketAddress(addr.getIpAddress(), addr.getPort()));
+            future.addListener(f -> {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.peer = addr.toString();
+                    event.success = f.isSuccess();
+                    event.commit();
+                }
+            });
+            return future;
         });
     }
 
+    private static void disconnected(Channel channel, IpAddress address, boolean inbound) {
+        TransportEvents.Disconnect event = new TransportEvents.Disconnect();
+        if (event.isEnabled()) {
+            event.peer = String.valueOf(address != null ? address : channel.remoteAddress());
+            event.inbound = inbound;
+            event.commit();
+        }
+    }
+
     public Channel getServerChannelForAddress(Address address, boolean server) {
         return (server ? serverChannelMap : clientChannelMap).get(address);
     }
 
+    /**
+     * @return the bytes written to the channels of the given peer that are still waiting in Netty's outbound buffers
+     */
+    public long pendingOutboundBytes(Address address) {
+        return pendingOutboundBytes(serverChannelMap.get(address)) + pendingOutboundBytes(clientChannelMap.get(address));
+    }
+
+    public long pendingOutboundBytes() {
+        long pending = 0;
+        for (Channel channel : serverChannelMap.values()) {
+            pending += pendingOutboundBytes(channel);
+        }
+        for (Channel channel : clientChannelMap.values()) {
+            pending += pendingOutboundBytes(channel);
+        }
+        return pending;
+    }
+
+    public static long pendingOutboundBytes(Channel channel) {
+        if (channel == null) {
+            return 0;
+        }
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        return buffer != null ? buffer.totalPendingWriteBytes() : 0;
+    }
+
+    /**
+     * Closes the connections to and from a member, failing the writes still pending on them
+     */
+    public void closeConnections(PhysicalAddress address) {
+        Channel ch = clientChannelMap.get(address);
+        if (ch != null) {
+            ch.close();
+        }
+        ch = serverChannelMap.get(address);
+        if (ch != null) {
+            ch.close();
+        }
+        Striping.Paths paths = striping.paths((IpAddress) address);
+        if (paths != null) {
+            paths.close();
+        }
+    }
+
+    public int numConnections() {
+        return serverChannelMap.size() + clientChannelMap.size();
+    }
+
     private void packAndFlushToChannel(Channel ch, ByteBufMessage msg) {
         int bufferSize = (Integer.BYTES * 2) + replyAdder.length + TP.MSG_OVERHEAD + msg.nonPayloadSize();
         ByteBuf first = ch.alloc().buffer(bufferSize, bufferSize);
@@ -218,16 +442,50 @@ public class NettyConnection {
             bbos.writeInt(payload.readableBytes());
 
             assert first.writerIndex() == first.capacity();
-            // We send as two ByteBuf so we don't want to modify the original
-            ch.write(first, ch.voidPromise());
-            writeAndFlushToChannel(ch, payload);
+            // We send as a composite of two ByteBuf so we don't want to modify the original, but the frame is still
+            // a single write for the handlers in the pipeline
+            writeAndFlushToChannel(ch, ch.alloc().compositeBuffer(2).addComponent(true, first)
+                  .addComponent(true, payload));
+        } catch (IOException e) {
+            // Shouldn't be possible
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Each component of the payload becomes a buffer of the gather write
+    private void packAndFlushToChannel(Channel ch, CompositeByteBufMessage msg) {
+        int bufferSize = Integer.BYTES + replyAdder.length + TP.MSG_OVERHEAD + msg.nonPayloadSize()
+              + msg.payloadHeaderSize();
+        ByteBuf first = ch.alloc().buffer(bufferSize, bufferSize);
+        first.writeInt(bufferSize - Integer.BYTES + msg.getLength());
+        first.writeBytes(replyAdder);
+
+        try (ByteBufOutputStream bbos = new ByteBufOutputStream(first)) {
+            bbos.writeShort(Version.version);
+            bbos.writeByte(msg.getDest() == null ? MULTICAST : 0);
+            bbos.writeShort(msg.getType());
+            msg.writeNonPayload(bbos);
+            msg.writePayloadHeader(bbos);
+            assert first.writerIndex() == first.capacity();
         } catch (IOException e) {
             // Shouldn't be possible
             throw new RuntimeException(e);
         }
+        CompositeByteBuf frame = ch.alloc().compositeBuffer(1 + msg.numComponents()).addComponent(true, first);
+        for (ByteBuf component : msg.components()) {
+            frame.addComponent(true, component);
+        }
+        writeAndFlushToChannel(ch, frame);
     }
 
     public final void send(IpAddress destAddr, boolean oob, ByteBuf buf) {
+        send(destAddr, oob, buf, null);
+    }
+
+    /**
+     * @param sample the trace sample of the message, or null if it isn't sampled
+     */
+    public final void send(IpAddress destAddr, boolean oob, ByteBuf buf, MessageTracer.Sample sample) {
         Channel opened = null;
         if (oob) {
             // OOB messages use the client socket until the server finally gets its connected client
@@ -238,57 +496,326 @@ public class NettyConnection {
         if (opened == null) {
             opened = clientChannelMap.get(destAddr);
         }
+        send(destAddr, opened, buf, sample);
+    }
+
+    /**
+     * Same as {@link #send(IpAddress, boolean, ByteBuf, MessageTracer.Sample)}, but only looks up the channels of the
+     * destination when the ones it remembers were closed
+     */
+    public final void send(Destination dest, boolean oob, ByteBuf buf, MessageTracer.Sample sample) {
+        send(dest.physicalAddress(), channel(dest, oob), buf, sample);
+    }
+
+    /**
+     * Whether the loops of the connections opened to members terminated, after which they hold no more buffers, but
+     * the listeners of connections opened meanwhile are never notified
+     */
+    public boolean isClientGroupTerminated() {
+        return client_group.isTerminated();
+    }
+
+    /**
+     * Sends bytes that are only lent by the caller, such as the output buffer a bundler reuses for its next batch. They
+     * are wrapped instead of copied and the frame header is added on the event loop. A caller running on an event loop
+     * must not wait for a write, so a copy is sent instead
+     *
+     * @return completed once Netty released the bytes, i.e. they were written or dropped, after which the caller may
+     * reuse them
+     */
+    public final Future<Void> sendBorrowed(Destination dest, byte[] data, int offset, int length) {
+        Channel opened = channel(dest, false);
+        if (ThreadExecutorMap.currentExecutor() != null) {
+            send(dest.physicalAddress(), opened, pack(allocator, data, offset, length, replyAdder), null);
+            return ImmediateEventExecutor.INSTANCE.newSucceededFuture(null);
+        }
+        BorrowedByteBuf borrowed = new BorrowedByteBuf(data, offset, length);
+        Consumer<Channel> writer = ch -> {
+            ByteBuf header = ch.alloc().buffer(Integer.BYTES + replyAdder.length)
+                  .writeInt(length + replyAdder.length)
+                  .writeBytes(replyAdder);
+            writeAndFlushToChannel(ch, ch.alloc().compositeBuffer(2).addComponent(true, header)
+                  .addComponent(true, borrowed));
+        };
+        if (opened == null && client_group.isShuttingDown()) {
+            borrowed.release();
+        } else if (opened == null) {
+            connectAndSend(dest.physicalAddress(), writer, borrowed::release);
+        } else if (opened.eventLoop().inEventLoop()) {
+            writer.accept(opened);
+        } else {
+            try {
+                opened.eventLoop().execute(() -> writer.accept(opened));
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                borrowed.release();
+            }
+        }
+        return borrowed.released;
+    }
+
+    /**
+     * Sends the frame header of a {@link FileRegionMessage} followed by its region, which the kernel copies from the
+     * file to the socket. Channels that can't write a {@link FileRegion} read the region into a buffer instead
+     *
+     * @param header the frame up to the bytes of the region, released once it was sent
+     */
+    public final void send(Destination dest, boolean oob, ByteBuf header, FileRegionMessage msg) {
+        Channel opened = channel(dest, oob);
+        if (opened == null) {
+            connectAndSend(dest.physicalAddress(), ch -> writeFileRegion(ch, header, msg), header::release);
+        } else if (opened.eventLoop().inEventLoop()) {
+            writeFileRegion(opened, header, msg);
+        } else {
+            opened.eventLoop().execute(() -> writeFileRegion(opened, header, msg));
+        }
+    }
+
+    // The channel remembered by the destination, looked up again only when it was closed or replaced
+    private Channel channel(Destination dest, boolean oob) {
+        IpAddress destAddr = dest.physicalAddress();
+        Channel opened = null;
+        if (oob) {
+            opened = dest.serverChannel;
+            if (!isCurrent(opened)) {
+                opened = dest.serverChannel = serverChannelMap.get(destAddr);
+            }
+        }
+        if (opened == null) {
+            opened = dest.clientChannel;
+            if (!isCurrent(opened)) {
+                opened = dest.clientChannel = clientChannelMap.get(destAddr);
+            }
+            if (striping.enabled()) {
+                opened = stripe(destAddr, opened);
+            }
+        }
+        return opened;
+    }
+
+    // The connection of the path the next frame to the member is sent over, see Striping
+    private Channel stripe(IpAddress destAddr, Channel primary) {
+        Striping.Paths paths = striping.paths(destAddr);
+        if (paths == null) {
+            return primary;
+        }
+        if (primary == null) {
+            // Fail over to another path while the primary connection is opened again
+            Channel ch = paths.anyChannel();
+            if (ch != null) {
+                striping.failedOver();
+                connectAndSend(destAddr, c -> { });
+            }
+            return ch;
+        }
+        int path = paths.next();
+        if (path == 0) {
+            return primary;
+        }
+        Channel ch = paths.channel(path);
+        if (ch != null) {
+            striping.striped();
+            return ch;
+        }
+        if (paths.open(path)) {
+            openPath(destAddr, paths, path);
+        }
+        return primary;
+    }
+
+    private void openPath(IpAddress destAddr, Striping.Paths paths, int path) {
+        IpAddress remote = paths.remoteAddress(path);
+        clientBootstrap.clone().attr(PATH_ATTRIBUTE, path)
+              .connect(new InetSocketAddress(remote.getIpAddress(), remote.getPort()),
+                    new InetSocketAddress(paths.localAddress(path), 0))
+              .addListener((ChannelFutureListener) f -> {
+                  if (f.isSuccess()) {
+                      Channel ch = f.channel();
+                      ch.attr(ADDRESS_ATTRIBUTE).set(destAddr);
+                      ch.attr(ADDRESS_WRITE_STATUS).set(Boolean.TRUE);
+                      paths.opened(path, ch);
+                      ch.closeFuture().addListener(c -> paths.closed(path, ch));
+                      log.debug("%s:%s opened path %d to %s from %s", bind_addr, port, path, destAddr, ch.localAddress());
+                  } else {
+                      striping.pathFailed();
+                      paths.failed(path);
+                      log.debug("%s:%s unable to open path %d to %s via %s", bind_addr, port, path, destAddr, remote,
+                            f.cause());
+                  }
+              });
+    }
+
+    // Whether a remembered channel is still the one registered for its member
+    private static boolean isCurrent(Channel ch) {
+        return ch != null && ch.isActive() && !ch.hasAttr(REPLACED);
+    }
+
+    private void writeFileRegion(Channel ch, ByteBuf header, FileRegionMessage msg) {
+        if (!fileRegions) {
+            ByteBuf content;
+            try {
+                content = msg.readRegion(ch.alloc());
+            } catch (IOException e) {
+                header.release();
+                log.error("%s:%s failed reading %s", bind_addr, port, msg, e);
+                return;
+            }
+            writeAndFlushToChannel(ch, ch.alloc().compositeBuffer(2).addComponent(true, header)
+                  .addComponent(true, content));
+            return;
+        }
+        ch.write(header, ch.voidPromise());
+        ch.writeAndFlush(new DefaultFileRegion(msg.getPath().toFile(), msg.getRegionOffset(), msg.getLength()))
+              .addListener(f -> {
+                  if (!f.isSuccess()) {
+                      // The header promised the peer more bytes than it will get, so the stream can't be used anymore
+                      log.error("%s:%s failed sending %s, closing %s", bind_addr, port, msg, ch, f.cause());
+                      ch.close();
+                  }
+              });
+    }
+
+    private void send(IpAddress destAddr, Channel opened, ByteBuf buf, MessageTracer.Sample sample) {
         if (opened != null) {
             if (opened.eventLoop().inEventLoop()) {
-                writeAndFlushToChannel(opened, buf);
+                writeAndFlushToChannel(opened, buf, sample);
             } else {
                 Channel finalChannel = opened;
-                opened.eventLoop().submit(() -> writeAndFlushToChannel(finalChannel, buf));
+                opened.eventLoop().submit(() -> writeAndFlushToChannel(finalChannel, buf, sample));
             }
         }
         else
-            connectAndSend(destAddr, ch -> writeAndFlushToChannel(ch, buf));
+            connectAndSend(destAddr, ch -> writeAndFlushToChannel(ch, buf, sample), buf::release);
     }
 
     private static void writeAndFlushToChannel(Channel ch, ByteBuf data) {
         ch.writeAndFlush(data, ch.voidPromise());
     }
 
+    private static void writeAndFlushToChannel(Channel ch, ByteBuf data, MessageTracer.Sample sample) {
+        if (sample == null) {
+            writeAndFlushToChannel(ch, data);
+            return;
+        }
+        long onEventLoop = sample.onEventLoop();
+        ch.writeAndFlush(data).addListener(f -> sample.written(onEventLoop));
+    }
+
     private void updateMap(Channel connected, IpAddress destAddr, boolean server) {
+        if (connected.hasAttr(PATH_ATTRIBUTE)) {
+            // Carries part of the frames of a member, which keeps its primary connection in the tables
+            return;
+        }
         Map<PhysicalAddress, Channel> map = server ? serverChannelMap : clientChannelMap;
-        Channel channel = map.get(destAddr);
-        if (channel != null) {
-            if (channel == connected) {
-                return;
-            }
+        if (map.get(destAddr) == connected || connected.attr(REGISTERED).setIfAbsent(Boolean.TRUE) != null) {
+            // Registered already, possibly replaced by a newer connection since
+            return;
         }
-        channel = map.putIfAbsent(destAddr, connected);
+        Channel channel = map.put(destAddr, connected);
         if (channel != null) {
-            throw new IllegalStateException("Address " + destAddr + " already registered as server: " + server + ", second attempt received!");
+            // A member keeps a single connection to us, so it replaced the registered one, e.g. after closing it as
+            // idle, and the close wasn't read yet. The frames still in flight on it are read until then, but nothing
+            // is sent over it anymore
+            channel.attr(REPLACED).set(Boolean.TRUE);
+            log.debug("%s:%s Destination is server: %s with address %s replaced %s with %s", bind_addr, port, server,
+                  destAddr, channel, connected);
         }
         log.debug("%s:%s Destination is server: %s with address %s bound to %s", bind_addr, port, server, destAddr, Thread.currentThread());
         connected.attr(ADDRESS_ATTRIBUTE).set(destAddr);
+        if (idleConnections != null) {
+            idleConnections.connected(destAddr, server);
+        }
     }
 
     private void configureClient() {
-        clientBootstrap.group(worker_group)
-          .handler(new PipelineChannelInitializer(this.callback, clientLifecycleListener))
+        clientBootstrap.group(client_group)
+          .handler(new PipelineChannelInitializer(this.callback, clientLifecycleListener, flushPolicy, compression,
+                compact, spill, tls, metrics, clockSync, idleConnections, health, striping, tuning))
           .channel(clientChannel)
           .localAddress(bind_addr, 0)
           .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 1000)
-          .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+          .option(ChannelOption.ALLOCATOR, allocator)
                 .option(ChannelOption.TCP_NODELAY, true);
+        if (busyPoll != null && busyPoll.socketBusyPollMicros() > 0) {
+            clientBootstrap.option(EpollChannelOption.SO_BUSY_POLL, busyPoll.socketBusyPollMicros());
+        }
+        configureHealth(clientBootstrap::option);
+        configureSocket(clientBootstrap::option);
     }
 
     private void configureServer() {
         serverBootstrap.group(boss_group, worker_group)
-                .localAddress(bind_addr, port)
                 .channel(serverChannel)
-                .childHandler(new PipelineChannelInitializer(this.callback, serverLifecycleListener))
+                .childHandler(new PipelineChannelInitializer(this.callback, serverLifecycleListener, flushPolicy,
+                      compression, compact, spill, tls, metrics, clockSync, idleConnections, health, striping, tuning))
                 .option(ChannelOption.SO_REUSEADDR, true)
                 .option(ChannelOption.SO_BACKLOG, 128)
-                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.ALLOCATOR, allocator)
           .childOption(ChannelOption.TCP_NODELAY, true);
+        if (busyPoll != null && busyPoll.socketBusyPollMicros() > 0) {
+            serverBootstrap.childOption(EpollChannelOption.SO_BUSY_POLL, busyPoll.socketBusyPollMicros());
+        }
+        configureHealth(serverBootstrap::childOption);
+        // Accepted connections inherit the receive buffer of the listening socket, which has to be set before the
+        // handshake to scale the window beyond 64KB
+        if (tuning.receiveBufferSize() > 0) {
+            serverBootstrap.option(ChannelOption.SO_RCVBUF, tuning.receiveBufferSize());
+        }
+        configureSocket(serverBootstrap::childOption);
+    }
+
+    // Lets the kernel detect dead connections, beyond SO_KEEPALIVE only possible with the native transports
+    private void configureHealth(BiConsumer<ChannelOption<Object>, Object> options) {
+        if (health.isKeepAlive()) {
+            option(options, ChannelOption.SO_KEEPALIVE, true);
+        }
+        if (!isNativeTransport()) {
+            return;
+        }
+        boolean epoll = EpollSocketChannel.class.isAssignableFrom(clientChannel);
+        if (health.tcpUserTimeoutMillis() > 0) {
+            option(options, epoll ? EpollChannelOption.TCP_USER_TIMEOUT : IOUringChannelOption.TCP_USER_TIMEOUT,
+                  health.tcpUserTimeoutMillis());
+        }
+        if (health.isKeepAlive()) {
+            option(options, epoll ? EpollChannelOption.TCP_KEEPIDLE : IOUringChannelOption.TCP_KEEPIDLE,
+                  health.keepAliveIdleSeconds());
+            if (health.keepAliveIntervalSeconds() > 0) {
+                option(options, epoll ? EpollChannelOption.TCP_KEEPINTVL : IOUringChannelOption.TCP_KEEPINTVL,
+                      health.keepAliveIntervalSeconds());
+            }
+            if (health.keepAliveCount() > 0) {
+                option(options, epoll ? EpollChannelOption.TCP_KEEPCNT : IOUringChannelOption.TCP_KEEPCNT,
+                      health.keepAliveCount());
+            }
+        }
+    }
+
+    // In adaptive mode each connection gets a receive allocator of its own from its SocketTuningHandler
+    private void configureSocket(BiConsumer<ChannelOption<Object>, Object> options) {
+        if (tuning.sendBufferSize() > 0) {
+            option(options, ChannelOption.SO_SNDBUF, tuning.sendBufferSize());
+        }
+        if (tuning.receiveBufferSize() > 0) {
+            option(options, ChannelOption.SO_RCVBUF, tuning.receiveBufferSize());
+        }
+        option(options, ChannelOption.WRITE_BUFFER_WATER_MARK, tuning.waterMark());
+        if (!tuning.isAdaptive()) {
+            option(options, ChannelOption.RCVBUF_ALLOCATOR, tuning.receiveAllocator());
+        }
+        if (tuning.notSentLowat() > 0 && EpollSocketChannel.class.isAssignableFrom(clientChannel)) {
+            option(options, EpollChannelOption.TCP_NOTSENT_LOWAT, tuning.notSentLowat());
+        }
+    }
+
+    private boolean isNativeTransport() {
+        return EpollSocketChannel.class.isAssignableFrom(clientChannel)
+              || IOUringSocketChannel.class.isAssignableFrom(clientChannel);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void option(BiConsumer<ChannelOption<Object>, Object> options, ChannelOption<T> option, T value) {
+        options.accept((ChannelOption<Object>) option, value);
     }
 
     private static ByteBuf pack(ByteBufAllocator allocator, byte[] data, int offset, int length, byte[] replyAdder) {
@@ -303,5 +830,22 @@ public class NettyConnection {
         assert buf.writerIndex() == buf.capacity();
         return buf;
     }
-}
 
+    /**
+     * Wraps bytes lent by a caller, which gets notified once Netty released them
+     */
+    private static final class BorrowedByteBuf extends UnpooledHeapByteBuf {
+        final Promise<Void> released = ImmediateEventExecutor.INSTANCE.newPromise();
+
+        BorrowedByteBuf(byte[] data, int offset, int length) {
+            super(UnpooledByteBufAllocator.DEFAULT, data, data.length);
+            setIndex(offset, offset + length);
+        }
+
+        @Override
+        protected void deallocate() {
+            super.deallocate();
+            released.trySuccess(null);
+        }
+    }
+}
@@ -3,35 +3,63 @@ package org.jgroups.protocols.netty;
 import java.io.DataInput;
 import java.io.IOException;
 import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.jgroups.Address;
 import org.jgroups.ByteBufMessage;
+import org.jgroups.CompositeByteBufMessage;
+import org.jgroups.FileRegionMessage;
 import org.jgroups.Event;
 import org.jgroups.Message;
 import org.jgroups.PhysicalAddress;
+import org.jgroups.Refcountable;
 import org.jgroups.Version;
+import org.jgroups.View;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Property;
+import org.jgroups.blocks.cs.netty.Destination;
 import org.jgroups.blocks.cs.netty.NettyConnection;
+import org.jgroups.conf.AttributeType;
 import org.jgroups.conf.ClassConfigurator;
 import org.jgroups.protocols.NoBundler;
+import org.jgroups.protocols.TCPPING;
 import org.jgroups.protocols.TP;
 import org.jgroups.stack.IpAddress;
 import org.jgroups.util.MemberAvailabilityEvent;
 import org.jgroups.util.MessageCompleteEvent;
+import org.jgroups.util.MessagesCompleteEvent;
+import org.jgroups.util.MessageTracer;
 import org.jgroups.util.NettyAsyncHeader;
+import org.jgroups.util.NettyTraceHeader;
 import org.jgroups.util.NonBlockingPassRegularMessagesUpDirectly;
 import org.jgroups.util.Util;
 import org.jgroups.util.WatermarkOverflowEvent;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufOutputStream;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
 import io.netty.channel.Channel;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
 import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.epoll.EpollSocketChannel;
@@ -42,10 +70,32 @@ import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.channel.unix.Errors;
+import io.netty.util.NettyRuntime;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.MultithreadEventExecutorGroup;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.incubator.channel.uring.IOUring;
 import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
 import io.netty.incubator.channel.uring.IOUringServerSocketChannel;
 import io.netty.incubator.channel.uring.IOUringSocketChannel;
 import netty.listeners.NettyReceiverListener;
+import netty.utils.AffinityProvider;
+import netty.utils.BusyPoll;
+import netty.utils.ClockSync;
+import netty.utils.CompactFrames;
+import netty.utils.CompressionCodec;
+import netty.utils.ConnectionHealth;
+import netty.utils.EventLoopMetrics;
+import netty.utils.EventLoopPlacement;
+import netty.utils.FlushPolicy;
+import netty.utils.FrameCompression;
+import netty.utils.FrameSpill;
+import netty.utils.IdleConnections;
+import netty.utils.SocketTuning;
+import netty.utils.TasksetAffinityProvider;
+import netty.utils.Striping;
+import netty.utils.Tls;
+import netty.utils.TransportMetrics;
 
 /***
  * @author Baizel Mathew
@@ -58,16 +108,309 @@ public class NettyTP extends TP implements NettyReceiverListener {
           "use IO_URING. Requires Linux with a kernel >= 5.9")
     protected boolean use_io_uring;
 
+    @Property(description = "Number of entries of the submission queue of each io_uring event loop, 0 for the " +
+          "default of 4096")
+    protected int io_uring_ring_size;
+
+    @Property(description = "Number of reads and writes in flight on an io_uring event loop above which further " +
+          "ones are submitted with IOSQE_ASYNC, so they are completed by kernel workers rather than inline")
+    protected int io_uring_iosqe_async_threshold = 25;
+
+    @Property(description = "Number of worker event loops, which handle the connections accepted from members and, " +
+          "unless client_worker_threads is set, those opened to them. 0 for Netty's default of twice the number of cores")
+    protected int worker_threads;
+
+    @Property(description = "Number of event loops of a separate group for the connections opened to members, 0 to " +
+          "use the worker event loops for them as well")
+    protected int client_worker_threads;
+
+    @Property(description = "CPUs the worker event loops are pinned to, one CPU per loop in turn, in the format of " +
+          "taskset -c, e.g. 0-7,16-23. Empty leaves them to the scheduler")
+    protected String worker_cpus;
+
+    @Property(description = "CPUs the event loops of client_worker_threads are pinned to, like worker_cpus")
+    protected String client_worker_cpus;
+
+    @Property(description = "Class implementing netty.utils.AffinityProvider that pins event loops to CPUs. " +
+          "Defaults to one running taskset, which requires Linux")
+    protected String affinity_provider;
+
+    @Property(description = "Low latency mode: the worker event loops keep polling for busy_poll_spin_time before " +
+          "parking in epoll_wait, which saves the wakeup latency but burns a core per loop. Requires the native " +
+          "(epoll) transport")
+    protected boolean busy_poll;
+
+    @Property(description = "Number of worker event loops in busy_poll mode, which handle all connections")
+    protected int busy_poll_event_loops = 2;
+
+    @Property(description = "Max time a worker event loop spins after its last event in busy_poll mode",
+          type = AttributeType.TIME, unit = TimeUnit.MICROSECONDS)
+    protected long busy_poll_spin_time = 100;
+
+    @Property(description = "SO_BUSY_POLL of the sockets in busy_poll mode, i.e. the time the kernel polls the " +
+          "device queue on reads. 0 keeps the system default (net.core.busy_read)",
+          type = AttributeType.TIME, unit = TimeUnit.MICROSECONDS)
+    protected int busy_poll_socket_time;
+
+    @Property(description = "Fails to start if the io_uring or native transport requested can't be used, instead of " +
+          "falling back to epoll or NIO")
+    protected boolean native_transport_required;
+
+    @Property(description = "Flushes writes to a connection as soon as this many bytes are pending, instead of " +
+          "waiting for the end of the current read or event loop iteration")
+    protected int flush_max_pending_bytes = 64 * 1024;
+
+    @Property(description = "Flushes writes to a connection as soon as this many messages are pending, instead of " +
+          "waiting for the end of the current read or event loop iteration")
+    protected int flush_max_pending_messages = 256;
+
+    @Property(description = "Max time in microseconds the oldest pending write to a connection may wait for a " +
+          "consolidated flush. 0 flushes every write immediately", type = AttributeType.TIME, unit = TimeUnit.MICROSECONDS)
+    protected long flush_max_delay = 100;
+
+    @Property(description = "Codec used to compress frames sent to peers supporting it: none, lz4 or zstd. " +
+          "Requires lz4-java or zstd-jni on the classpath, and all members to run a version that knows about the " +
+          "control frames negotiating it")
+    protected String compression = "none";
+
+    @Property(description = "Only frames with at least this many bytes are compressed", type = AttributeType.BYTES)
+    protected int compression_threshold = 64 * 1024;
+
+    @Property(description = "Compression level, only used by zstd")
+    protected int compression_level = 3;
+
+    @Property(description = "Sends frames in a compact format to peers supporting it, which codes small frames " +
+          "as the difference to the previous one sent over the same connection. All members have to run a version " +
+          "that knows about the control frames negotiating it")
+    protected boolean compact_frames;
+
+    @Property(description = "Frames with a larger body are sent in the regular format when compact_frames is " +
+          "enabled. Each connection keeps two frames of this size per direction, so it is at most 64KB",
+          type = AttributeType.BYTES)
+    protected int compact_max_frame_size = 1024;
+
+    @Property(description = "Frames with at least this many bytes that span several reads are assembled in a " +
+          "memory-mapped temporary file instead of direct memory, e.g. for large FileRegionMessages. 0 disables it",
+          type = AttributeType.BYTES)
+    protected int receive_spill_threshold;
+
+    @Property(description = "Directory of the files of receive_spill_threshold, the default temporary directory " +
+          "if not set")
+    protected String receive_spill_dir;
+
+    @Property(description = "Number of arenas of the transport's pooled allocator, 0 for one per worker event loop, " +
+          "so each event loop allocates from an arena of its own")
+    protected int allocator_arenas;
+
+    @Property(description = "Whether the transport's allocator returns direct rather than heap buffers by default")
+    protected boolean allocator_prefer_direct = true;
+
+    @Property(description = "Number of buffers of up to 28KB cached per size by each thread, 0 disables the cache")
+    protected int allocator_small_cache_size = 256;
+
+    @Property(description = "Number of buffers of up to 32KB and larger than 28KB cached per size by each thread, " +
+          "0 disables the cache")
+    protected int allocator_normal_cache_size = 64;
+
+    @Property(description = "Whether threads other than the event loops, e.g. senders, get a buffer cache. Without " +
+          "one their buffers always go back to the arena")
+    protected boolean allocator_cache_all_threads = true;
+
+    @Property(description = "Size of the chunks arenas allocate memory in, a power of 2 of at least the page size. " +
+          "Buffers larger than a chunk aren't pooled", type = AttributeType.BYTES)
+    protected int allocator_chunk_size = 4 * 1024 * 1024;
+
+    @Property(description = "Encrypts all connections with TLS, handled on the event loops by Netty's SslHandler")
+    protected boolean use_tls;
+
+    @Property(description = "TLS engine to use: openssl (requires netty-tcnative), jdk, or auto to use openssl when " +
+          "available and fall back to jdk otherwise")
+    protected String tls_provider = "auto";
+
+    @Property(description = "Key store with the key and certificate of this member")
+    protected String tls_keystore;
+
+    @Property(description = "Password of tls_keystore and of the key in it", exposeAsManagedAttribute = false)
+    protected String tls_keystore_password;
+
+    @Property(description = "Type of tls_keystore and tls_truststore")
+    protected String tls_keystore_type = "PKCS12";
+
+    @Property(description = "Trust store with the certificates of trusted members. Defaults to tls_keystore, so " +
+          "members sharing a self-signed certificate trust each other")
+    protected String tls_truststore;
+
+    @Property(description = "Password of tls_truststore", exposeAsManagedAttribute = false)
+    protected String tls_truststore_password;
+
+    @Property(description = "Whether connecting members have to present a certificate: NONE, OPTIONAL or REQUIRE")
+    protected String tls_client_auth = "REQUIRE";
+
+    @Property(description = "Comma separated list of enabled TLS protocols, empty for the provider's default")
+    protected String tls_protocols;
+
+    @Property(description = "Comma separated list of enabled cipher suites, empty for the provider's default")
+    protected String tls_ciphers;
+
+    @Property(description = "Number of TLS sessions cached for resumption, 0 for the provider's default")
+    protected long tls_session_cache_size = 1024;
+
+    @Property(description = "Time a cached TLS session can be resumed", type = AttributeType.TIME, unit = TimeUnit.SECONDS)
+    protected long tls_session_timeout = 3600;
+
+    @Property(description = "Max number of bytes of consecutive writes encrypted into a single TLS record",
+          type = AttributeType.BYTES)
+    protected int tls_wrap_data_size = 16 * 1024;
+
+    @Property(description = "Time a TLS handshake may take before the connection is closed",
+          type = AttributeType.TIME)
+    protected long tls_handshake_timeout = 10000;
+
+    @Property(description = "Max time a connection may be idle, i.e. without frames sent or received apart from " +
+          "pings, before it is closed. It stays open while writes to it are pending or messages read from it are " +
+          "still being delivered, and is opened again by the next message sent over it. 0 keeps connections open",
+          type = AttributeType.TIME)
+    protected long conn_expire_time;
+
+    @Property(description = "SO_SNDBUF of the connections, 0 for the system default, which Linux tunes automatically",
+          type = AttributeType.BYTES)
+    protected int send_buf_size;
+
+    @Property(description = "SO_RCVBUF of the connections, 0 for the system default, which Linux tunes " +
+          "automatically", type = AttributeType.BYTES)
+    protected int recv_buf_size;
+
+    @Property(description = "A member becomes available again once the bytes pending to be written to its " +
+          "connection dropped below this. 0 for Netty's default of 32KB", type = AttributeType.BYTES)
+    protected int write_buffer_low_water_mark;
+
+    @Property(description = "A member becomes unavailable (MemberAvailabilityEvent) once the bytes pending to be " +
+          "written to its connection exceed this. 0 for Netty's default of 64KB", type = AttributeType.BYTES)
+    protected int write_buffer_high_water_mark;
+
+    @Property(description = "Min size of the buffers reads from a connection are done into", type = AttributeType.BYTES)
+    protected int recv_buf_guess_min = 64;
+
+    @Property(description = "Initial size of the buffers reads from a connection are done into, which grows when " +
+          "reads fill it and shrinks when they don't", type = AttributeType.BYTES)
+    protected int recv_buf_guess_initial = 2048;
+
+    @Property(description = "Max size of the buffers reads from a connection are done into", type = AttributeType.BYTES)
+    protected int recv_buf_guess_max = 64 * 1024;
+
+    @Property(description = "TCP_NOTSENT_LOWAT of the connections: max unsent bytes the kernel accepts into the " +
+          "send buffer, so the rest waits in Netty's outbound buffer, where it counts towards the write buffer " +
+          "watermarks. Only set by the epoll transport, 0 for the system default", type = AttributeType.BYTES)
+    protected long tcp_notsent_lowat;
+
+    @Property(description = "Interval at which the write buffer watermarks and max receive buffer guess of each " +
+          "connection are sized to the bandwidth-delay product of its member, from the rate of the traffic and the " +
+          "round trip time of pings. Neither is made smaller than configured. 0 keeps them as configured",
+          type = AttributeType.TIME)
+    protected long adaptive_tuning_interval;
+
+    @Property(description = "Max write buffer watermark and receive buffer guess set by adaptive_tuning_interval",
+          type = AttributeType.BYTES)
+    protected int adaptive_tuning_max_size = 16 * 1024 * 1024;
+
+    @Property(description = "Additional local addresses, e.g. of other NICs, also listened on with the port of " +
+          "bind_addr and advertised to members on connect. Frames to a member with additional addresses as well are " +
+          "striped round robin across the primary connection and one connection from each of our additional " +
+          "addresses to the matching one of the member, skipping paths that fail. Comma separated, empty disables " +
+          "striping")
+    protected String stripe_addrs;
+
+    @Property(description = "Interval at which each connection is checked, pinging it if nothing was read from it " +
+          "since the last check. A member none of whose connections read anything for health_check_timeout is " +
+          "suspected and its connections closed. 0 disables the checks", type = AttributeType.TIME)
+    protected long health_check_interval;
+
+    @Property(description = "Time after which a member that doesn't answer pings, or on epoll doesn't acknowledge " +
+          "data sent to it, is suspected. Has to be longer than health_check_interval", type = AttributeType.TIME)
+    protected long health_check_timeout = 1000;
+
+    @Property(description = "TCP_USER_TIMEOUT of the connections: time sent data may stay unacknowledged before " +
+          "the kernel closes the connection. Only set by the epoll and io_uring transports, 0 for the system default",
+          type = AttributeType.TIME)
+    protected int tcp_user_timeout;
+
+    @Property(description = "Seconds a connection has to be idle before TCP keepalive probes are sent, 0 disables " +
+          "keepalive")
+    protected int tcp_keepalive_idle;
+
+    @Property(description = "Seconds between TCP keepalive probes. Only set by the epoll and io_uring transports, 0 " +
+          "for the system default")
+    protected int tcp_keepalive_interval;
+
+    @Property(description = "Number of unanswered TCP keepalive probes after which the kernel closes the " +
+          "connection. Only set by the epoll and io_uring transports, 0 for the system default")
+    protected int tcp_keepalive_count;
+
+    @Property(description = "Starts the event loops and allocates the first chunk of each arena of the allocator " +
+          "while binding, rather than on the first connection or message")
+    protected boolean warm_up = true;
+
+    @Property(description = "Opens connections to the TCPPING initial_hosts as soon as the transport is bound, so " +
+          "they are open or on the way by the time discovery sends to them")
+    protected boolean preconnect_initial_hosts = true;
+
+    @Property(description = "Interval at which the latency of each event loop is probed, 0 disables probing",
+          type = AttributeType.TIME)
+    protected long event_loop_probe_interval = 1000;
+
+    @Property(description = "Frames of at least this size sent or received are recorded as flight recorder events, " +
+          "when a recording is running", type = AttributeType.BYTES)
+    protected int large_frame_event_threshold = 1024 * 1024;
+
+    @Property(description = "Traces the latency of 1 in this many messages through the transport on sender and " +
+          "receiver, 0 disables tracing")
+    protected int trace_sample_rate;
+
+    @Property(description = "Interval at which the clock offset to each member is estimated when tracing, from the " +
+          "round trip time of a ping over the connection", type = AttributeType.TIME)
+    protected long trace_clock_probe_interval = 5000;
+
     private NettyConnection server;
     private IpAddress selfAddress;
 
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
+    // Null if the connections opened to members use the workerGroup
+    private EventLoopGroup clientGroup;
+    private EventLoopPlacement workerPlacement;
+    private EventLoopPlacement clientPlacement;
 
     private Class<? extends ServerChannel> serverChannel;
     private Class<? extends SocketChannel> clientChannel;
+    // Whether the channel classes were chosen to match the transport, rather than set
+    private boolean defaultServerChannel;
+    private boolean defaultClientChannel;
+
+    private PooledByteBufAllocator allocator;
+    private BusyPoll busyPoll;
+    private FlushPolicy flushPolicy;
+    private FrameCompression frameCompression;
+    private CompactFrames compactFrames;
+    private FrameSpill frameSpill;
+    private Tls tls;
+    private TransportMetrics transportMetrics;
+    private EventLoopMetrics eventLoopMetrics;
+    private ClockSync clockSync;
+    // Null unless conn_expire_time is set
+    private IdleConnections idleConnections;
+    private ConnectionHealth connectionHealth;
+    private Striping striping;
+    private SocketTuning socketTuning;
+    private MessageTracer tracer;
+
+    // Resolved destinations of members, so sends don't have to resolve addresses or look up channels
+    private final Map<Address, Destination> destinations = new ConcurrentHashMap<>();
+    private final Map<PhysicalAddress, Address> logicalAddresses = new ConcurrentHashMap<>();
+    private volatile MemberDestinations memberDestinations;
 
     private boolean initCalledPrior;
+    // Whether a bundler other than NoBundler was configured
+    private boolean bundling;
 
     public NettyTP() {
         msg_processing_policy = new NonBlockingPassRegularMessagesUpDirectly();
@@ -81,13 +424,23 @@ public class NettyTP extends TP implements NettyReceiverListener {
     @Override
     public void init() throws Exception {
         ClassConfigurator.addIfAbsent(NettyAsyncHeader.MAGIC_ID, NettyAsyncHeader.class);
+        ClassConfigurator.addIfAbsent(NettyTraceHeader.MAGIC_ID, NettyTraceHeader.class);
 
         super.init();
+        checkTransportAvailability();
+        if (busy_poll && (use_io_uring || !use_native_transport)) {
+            log.warn("busy_poll requires the native transport without io_uring (disabling it)");
+            busy_poll = false;
+        }
+        busyPoll = busy_poll ? new BusyPoll(TimeUnit.MICROSECONDS.toNanos(busy_poll_spin_time), busy_poll_socket_time)
+              : null;
         if (serverChannel == null) {
             serverChannel = serverChannel();
+            defaultServerChannel = true;
         }
         if (clientChannel == null) {
             clientChannel = clientChannel();
+            defaultClientChannel = true;
         }
         if (!(msg_processing_policy instanceof NonBlockingPassRegularMessagesUpDirectly)) {
             log.debug("msg_processing_policy was set, ignoring as NettyTP requires it specific policy");
@@ -95,14 +448,38 @@ public class NettyTP extends TP implements NettyReceiverListener {
             msg_processing_policy.init(this);
         }
 
-        if (!(bundler instanceof NoBundler)) {
-            log.debug("bundler was set, ignoring as NettyTP requires NoBundler");
-            bundler = new NoBundler();
-            bundler.init(this);
+        bundling = !(bundler instanceof NoBundler);
+        if (bundling) {
+            log.debug("messages are sent through %s", bundler.getClass().getSimpleName());
+        }
+
+        transportMetrics = new TransportMetrics(large_frame_event_threshold);
+        clockSync = new ClockSync(clockProbeInterval());
+        tracer = trace_sample_rate > 0 ? new MessageTracer(trace_sample_rate, this, clockSync) : null;
+        frameCompression = new FrameCompression(compressionCodec(), compression_threshold, compression_level);
+        if (compact_max_frame_size <= 0 || compact_max_frame_size > CompactFrames.MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("compact_max_frame_size must be between 1 and " +
+                  CompactFrames.MAX_FRAME_SIZE + ": " + compact_max_frame_size);
+        }
+        compactFrames = new CompactFrames(compact_frames, compact_max_frame_size);
+        frameSpill = new FrameSpill(receive_spill_threshold, receive_spill_dir != null ? Paths.get(receive_spill_dir) : null);
+        idleConnections = conn_expire_time > 0 ? new IdleConnections(conn_expire_time) : null;
+        striping = new Striping(stripeAddresses());
+        socketTuning = new SocketTuning(send_buf_size, recv_buf_size, write_buffer_low_water_mark,
+              write_buffer_high_water_mark, recv_buf_guess_min, recv_buf_guess_initial, recv_buf_guess_max,
+              tcp_notsent_lowat, adaptive_tuning_interval, adaptive_tuning_max_size, transportMetrics, clockSync);
+        connectionHealth = new ConnectionHealth(health_check_interval, health_check_timeout, tcp_user_timeout,
+              tcp_keepalive_idle, tcp_keepalive_interval, tcp_keepalive_count);
+        if (use_tls) {
+            tls = createTls();
+            log.debug("using TLS with the %s provider", tls.provider());
         }
 
         if (!initCalledPrior) {
-            msg_factory.register(ByteBufMessage.BYTE_BUF_MSG, () -> new ByteBufMessage(ByteBufAllocator.DEFAULT));
+            msg_factory.register(ByteBufMessage.BYTE_BUF_MSG, () -> new ByteBufMessage(allocator()));
+            msg_factory.register(CompositeByteBufMessage.COMPOSITE_BYTE_BUF_MSG,
+                  () -> new CompositeByteBufMessage(allocator()));
+            msg_factory.register(FileRegionMessage.FILE_REGION_MSG, () -> new FileRegionMessage(allocator()));
             initCalledPrior = true;
         }
     }
@@ -127,6 +504,13 @@ public class NettyTP extends TP implements NettyReceiverListener {
         this.workerGroup = workerGroup;
     }
 
+    /**
+     * @return the allocator of all buffers of the transport, only available once it was started
+     */
+    public PooledByteBufAllocator allocator() {
+        return allocator != null ? allocator : PooledByteBufAllocator.DEFAULT;
+    }
+
     public void setServerChannel(Class<? extends ServerChannel> serverChannel) {
         if (server != null) {
             throw new IllegalStateException("Server channel cannot be set after server has been started!");
@@ -146,110 +530,774 @@ public class NettyTP extends TP implements NettyReceiverListener {
         return false;
     }
 
+    /**
+     * Invoked by the bundler and by the other code of {@link TP} that sends serialized bytes. The bytes are written
+     * without copying them, so this waits until Netty released them, after which the caller may reuse them, just like
+     * when writing to a blocking socket. As with a direct write, a failed one is dropped
+     */
     @Override
     public void sendUnicast(PhysicalAddress dest, byte[] data, int offset, int length) throws Exception {
-        throw new UnsupportedOperationException();
+        if (Objects.equals(local_physical_addr, dest)) {
+            return;
+        }
+        Destination target = destination(dest);
+        Future<Void> released = server.sendBorrowed(target, data, offset, length);
+        while (!released.awaitUninterruptibly(100, TimeUnit.MILLISECONDS)) {
+            if (server.isClientGroupTerminated()) {
+                // Stopped while connecting
+                return;
+            }
+        }
     }
 
     @Override
     public String getInfo() {
-        return null;
+        if (server == null) {
+            return String.format("%s (not started)", serverChannel != null ? serverChannel.getSimpleName() : null);
+        }
+        return String.format("%s (%s), %d connections, tls=%s, compression=%s", serverChannel.getSimpleName(),
+              getTransportType(), server.numConnections(), getTlsProvider(), compression);
+    }
+
+    @ManagedAttribute(description = "Transport the worker event loops actually use: io_uring, epoll, nio, or the " +
+          "class of an event loop group that replaced the default one")
+    public String getTransportType() {
+        if (workerGroup == null) {
+            return null;
+        }
+        if (workerGroup instanceof IOUringEventLoopGroup) {
+            return "io_uring";
+        }
+        if (workerGroup instanceof EpollEventLoopGroup) {
+            return "epoll";
+        }
+        if (workerGroup instanceof NioEventLoopGroup) {
+            return "nio";
+        }
+        return workerGroup.getClass().getSimpleName();
+    }
+
+    @ManagedAttribute(description = "Number of frames received")
+    public long getFramesIn() {
+        return transportMetrics != null ? transportMetrics.framesIn() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of frames sent")
+    public long getFramesOut() {
+        return transportMetrics != null ? transportMetrics.framesOut() : 0;
+    }
+
+    @ManagedAttribute(description = "Bytes of all frames received, after decompression", type = AttributeType.BYTES)
+    public long getFrameBytesIn() {
+        return transportMetrics != null ? transportMetrics.bytesIn() : 0;
+    }
+
+    @ManagedAttribute(description = "Bytes of all frames sent, before compression", type = AttributeType.BYTES)
+    public long getFrameBytesOut() {
+        return transportMetrics != null ? transportMetrics.bytesOut() : 0;
+    }
+
+    @ManagedAttribute(description = "Bytes written to all connections still waiting in Netty's outbound buffers",
+          type = AttributeType.BYTES)
+    public long getPendingOutboundBytes() {
+        return server != null ? server.pendingOutboundBytes() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of times a connection became writable or unwritable")
+    public long getWritabilityChanges() {
+        return transportMetrics != null ? transportMetrics.writabilityChanges() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of times reads from a member were paused as its delivery backlog " +
+          "exceeded msg_processing_policy.high_watermark")
+    public long getReadPauses() {
+        return transportMetrics != null ? transportMetrics.readPauses() : 0;
+    }
+
+    @ManagedAttribute(description = "Total time reads from members were paused", type = AttributeType.TIME,
+          unit = TimeUnit.NANOSECONDS)
+    public long getReadPausedTime() {
+        return transportMetrics != null ? transportMetrics.readPausedNanos() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of connections opened to members")
+    public long getConnectAttempts() {
+        return transportMetrics != null ? transportMetrics.connectAttempts() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of connections to members that could not be opened")
+    public long getConnectFailures() {
+        return transportMetrics != null ? transportMetrics.connectFailures() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of connections closed after being idle for conn_expire_time")
+    public long getConnectionsReaped() {
+        return idleConnections != null ? idleConnections.reaped() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of connections opened again after the previous one to or from the same " +
+          "member was closed as idle")
+    public long getConnectionsReopened() {
+        return idleConnections != null ? idleConnections.reopened() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of pings sent by the health checks over connections nothing was read from")
+    public long getHealthPingsSent() {
+        return connectionHealth != null ? connectionHealth.pingsSent() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of times a member was suspected because it didn't answer the health checks")
+    public long getPeersUnreachable() {
+        return connectionHealth != null ? connectionHealth.peersUnreachable() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of connections of additional paths open to members, see stripe_addrs")
+    public int getStripePaths() {
+        return striping != null ? striping.openPaths() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of frames sent over an additional path rather than the primary connection")
+    public long getFramesStriped() {
+        return striping != null ? striping.framesStriped() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of times an additional path to a member could not be opened")
+    public long getStripePathFailures() {
+        return striping != null ? striping.pathFailures() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of frames sent over an additional path because the primary connection " +
+          "to the member was down")
+    public long getStripeFailovers() {
+        return striping != null ? striping.failovers() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of times adaptive_tuning_interval changed the write buffer watermark or " +
+          "max receive buffer guess of a member")
+    public long getSocketTuningAdjustments() {
+        return socketTuning != null ? socketTuning.adjustments() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of tasks waiting to be run by the worker event loops")
+    public int getEventLoopPendingTasks() {
+        return eventLoopMetrics != null ? eventLoopMetrics.pendingTasks() : 0;
+    }
+
+    @ManagedAttribute(description = "Max time a worker event loop was late running a task", type = AttributeType.TIME,
+          unit = TimeUnit.NANOSECONDS)
+    public long getEventLoopMaxLatency() {
+        return eventLoopMetrics != null ? eventLoopMetrics.maxLatencyNanos() : 0;
+    }
+
+    @ManagedOperation(description = "Prints the CPUs each event loop thread was pinned to and may run on")
+    public String printEventLoopPlacement() {
+        if (workerPlacement == null) {
+            return null;
+        }
+        return clientPlacement != null ? workerPlacement + "\n" + clientPlacement : workerPlacement.toString();
+    }
+
+    @ManagedAttribute(description = "Number of event loops that couldn't be pinned to their CPU")
+    public long getEventLoopPinFailures() {
+        return (workerPlacement != null ? workerPlacement.failures() : 0)
+              + (clientPlacement != null ? clientPlacement.failures() : 0);
+    }
+
+    @ManagedAttribute(description = "Time the worker event loops spent spinning in busy_poll mode, the CPU time " +
+          "the mode costs", type = AttributeType.TIME, unit = TimeUnit.NANOSECONDS)
+    public long getBusyPollSpinTime() {
+        return busyPoll != null ? busyPoll.spinTimeNanos() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of times a spinning worker event loop found work before parking")
+    public long getBusyPollHits() {
+        return busyPoll != null ? busyPoll.spinHits() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of times a spinning worker event loop found no work and parked")
+    public long getBusyPollParks() {
+        return busyPoll != null ? busyPoll.parks() : 0;
+    }
+
+    @ManagedAttribute(description = "Direct memory used by the pooled allocator", type = AttributeType.BYTES)
+    public long getAllocatorUsedDirectMemory() {
+        return allocator().metric().usedDirectMemory();
+    }
+
+    @ManagedAttribute(description = "Heap memory used by the pooled allocator", type = AttributeType.BYTES)
+    public long getAllocatorUsedHeapMemory() {
+        return allocator().metric().usedHeapMemory();
+    }
+
+    @ManagedAttribute(description = "Number of thread local caches of the pooled allocator")
+    public int getAllocatorThreadLocalCaches() {
+        return allocator().metric().numThreadLocalCaches();
+    }
+
+    @ManagedOperation(description = "Prints the bytes and frames sent to and received from each member")
+    public String printPeerMetrics() {
+        if (transportMetrics == null) {
+            return null;
+        }
+        return transportMetrics.peers().values().stream()
+              .map(p -> p + " pending=" + (server != null ? server.pendingOutboundBytes(p.address()) : 0))
+              .collect(Collectors.joining("\n"));
+    }
+
+    @ManagedOperation(description = "Prints the histograms of the sizes of frames received and sent")
+    public String printFrameSizes() {
+        if (transportMetrics == null) {
+            return null;
+        }
+        return String.format("in: %s\nout: %s", transportMetrics.framesInSizes(), transportMetrics.framesOutSizes());
+    }
+
+    @ManagedOperation(description = "Prints the pending tasks and latency of each worker event loop")
+    public String printEventLoops() {
+        return eventLoopMetrics != null ? eventLoopMetrics.toString() : null;
+    }
+
+    @ManagedOperation(description = "Prints the metrics of the pooled allocator and its arenas")
+    public String printAllocator() {
+        PooledByteBufAllocatorMetric metric = allocator().metric();
+        StringBuilder sb = new StringBuilder(metric.toString());
+        for (PoolArenaMetric arena : metric.directArenas()) {
+            sb.append("\ndirect arena: allocations=").append(arena.numActiveAllocations())
+                  .append(" active bytes=").append(arena.numActiveBytes())
+                  .append(" thread caches=").append(arena.numThreadCaches());
+        }
+        for (PoolArenaMetric arena : metric.heapArenas()) {
+            sb.append("\nheap arena: allocations=").append(arena.numActiveAllocations())
+                  .append(" active bytes=").append(arena.numActiveBytes())
+                  .append(" thread caches=").append(arena.numThreadCaches());
+        }
+        return sb.toString();
+    }
+
+    @ManagedAttribute(description = "Number of flushes requested by senders")
+    public long getFlushRequests() {
+        return flushPolicy != null ? flushPolicy.flushRequests() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of flushes passed on to the socket after consolidation")
+    public long getFlushes() {
+        return flushPolicy != null ? flushPolicy.flushes() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of flushes caused by flush_max_pending_bytes being exceeded")
+    public long getFlushesOnPendingBytes() {
+        return flushPolicy != null ? flushPolicy.bytesFlushes() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of flushes caused by flush_max_pending_messages being exceeded")
+    public long getFlushesOnPendingMessages() {
+        return flushPolicy != null ? flushPolicy.messagesFlushes() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of flushes caused by flush_max_delay being exceeded")
+    public long getFlushesOnDelay() {
+        return flushPolicy != null ? flushPolicy.delayFlushes() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of flushes deferred to the end of an event loop iteration")
+    public long getFlushesOnLoop() {
+        return flushPolicy != null ? flushPolicy.loopFlushes() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of flushes deferred to the end of a read")
+    public long getFlushesOnReadComplete() {
+        return flushPolicy != null ? flushPolicy.readCompleteFlushes() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of frames sent compressed")
+    public long getFramesCompressed() {
+        return frameCompression != null ? frameCompression.framesCompressed() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of frames above compression_threshold sent uncompressed as " +
+          "compressing didn't reduce their size")
+    public long getFramesNotCompressible() {
+        return frameCompression != null ? frameCompression.framesNotCompressible() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of compressed frames received")
+    public long getFramesDecompressed() {
+        return frameCompression != null ? frameCompression.framesDecompressed() : 0;
+    }
+
+    @ManagedAttribute(description = "Compressed size divided by the original size of all frames sent compressed")
+    public double getCompressionRatio() {
+        return frameCompression != null ? frameCompression.compressionRatio() : 1;
+    }
+
+    @ManagedAttribute(description = "Bytes not sent thanks to compression", type = AttributeType.BYTES)
+    public long getCompressionBytesSaved() {
+        return frameCompression != null ? frameCompression.bytesSavedOnSend() : 0;
+    }
+
+    @ManagedAttribute(description = "Time spent compressing frames", type = AttributeType.TIME, unit = TimeUnit.NANOSECONDS)
+    public long getCompressionTime() {
+        return frameCompression != null ? frameCompression.compressionNanos() : 0;
+    }
+
+    @ManagedAttribute(description = "Time spent decompressing frames", type = AttributeType.TIME, unit = TimeUnit.NANOSECONDS)
+    public long getDecompressionTime() {
+        return frameCompression != null ? frameCompression.decompressionNanos() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of frames sent in the compact format as a delta to the previous frame")
+    public long getCompactFramesSent() {
+        return compactFrames != null ? compactFrames.framesEncoded() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of frames received in the compact format as a delta to the previous frame")
+    public long getCompactFramesReceived() {
+        return compactFrames != null ? compactFrames.framesDecoded() : 0;
+    }
+
+    @ManagedAttribute(description = "Size of the frames sent as deltas divided by their size in the regular format")
+    public double getCompactFrameRatio() {
+        long before = compactFrames != null ? compactFrames.bytesBeforeEncoding() : 0;
+        return before > 0 ? (double) compactFrames.bytesAfterEncoding() / before : 1;
+    }
+
+    @ManagedAttribute(description = "Bytes not sent thanks to the compact frame format", type = AttributeType.BYTES)
+    public long getCompactFrameBytesSaved() {
+        return compactFrames != null ? compactFrames.bytesBeforeEncoding() - compactFrames.bytesAfterEncoding() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of frames received in a memory-mapped file, see receive_spill_threshold")
+    public long getFramesSpilled() {
+        return frameSpill != null ? frameSpill.framesSpilled() : 0;
+    }
+
+    @ManagedAttribute(description = "Bytes of the frames received in a memory-mapped file", type = AttributeType.BYTES)
+    public long getBytesSpilled() {
+        return frameSpill != null ? frameSpill.bytesSpilled() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of frames above receive_spill_threshold assembled in memory as creating " +
+          "their file failed")
+    public long getSpillFailures() {
+        return frameSpill != null ? frameSpill.spillFailures() : 0;
+    }
+
+    @ManagedAttribute(description = "The TLS engine in use, or null if TLS is disabled")
+    public String getTlsProvider() {
+        return tls != null ? tls.provider().toString() : null;
+    }
+
+    public MessageTracer tracer() {
+        return tracer;
+    }
+
+    @ManagedAttribute(description = "Number of sampled messages whose latency was traced until delivery")
+    public long getTracedMessages() {
+        return tracer != null ? tracer.samples(MessageTracer.Stage.DELIVER) : 0;
+    }
+
+    @ManagedOperation(description = "Prints the p50/p90/p99/p99.9/max latency of each stage of the sampled messages")
+    public String printLatencies() {
+        return tracer != null ? tracer.printLatencies() : "tracing is disabled, set trace_sample_rate";
+    }
+
+    @ManagedOperation(description = "Dumps the latency histograms of each stage of the sampled messages")
+    public String dumpLatencyHistograms() {
+        return tracer != null ? tracer.dumpHistograms() : "tracing is disabled, set trace_sample_rate";
+    }
+
+    @ManagedOperation(description = "Prints the additional paths to each member, see stripe_addrs")
+    public String printStripePaths() {
+        return striping != null && striping.enabled() ? striping.toString() : "striping is disabled, set stripe_addrs";
+    }
+
+    @ManagedOperation(description = "Prints the round trip time, peak rates, write buffer watermark and max receive " +
+          "buffer guess of each member, see adaptive_tuning_interval")
+    public String printSocketTuning() {
+        return socketTuning != null && socketTuning.isAdaptive() ? socketTuning.toString()
+              : "adaptive tuning is disabled, set adaptive_tuning_interval";
+    }
+
+    @ManagedOperation(description = "Prints the time since anything was read from each member checked for health")
+    public String printConnectionHealth() {
+        return connectionHealth != null && connectionHealth.isChecking() ? connectionHealth.toString()
+              : "health checks are disabled, set health_check_interval";
+    }
+
+    @ManagedOperation(description = "Prints the estimated clock offset and round trip time to each member")
+    public String printClockOffsets() {
+        return clockSync != null ? clockSync.toString() : null;
+    }
+
+    @Override
+    public void resetStats() {
+        super.resetStats();
+        if (flushPolicy != null) {
+            flushPolicy.reset();
+        }
+        if (frameCompression != null) {
+            frameCompression.reset();
+        }
+        if (compactFrames != null) {
+            compactFrames.reset();
+        }
+        if (frameSpill != null) {
+            frameSpill.reset();
+        }
+        if (busyPoll != null) {
+            busyPoll.reset();
+        }
+        if (idleConnections != null) {
+            idleConnections.reset();
+        }
+        if (connectionHealth != null) {
+            connectionHealth.reset();
+        }
+        if (striping != null) {
+            striping.reset();
+        }
+        if (socketTuning != null) {
+            socketTuning.reset();
+        }
+        if (transportMetrics != null) {
+            transportMetrics.reset();
+        }
+        if (eventLoopMetrics != null) {
+            eventLoopMetrics.reset();
+        }
+        if (tracer != null) {
+            tracer.reset();
+        }
     }
 
     @Override
     public void start() throws Exception {
         super.start();
         initializeNettyGroupsIfNecessary();
-        // We have to set this before actually being connected, because it is possible the server/client may
-        // get a request before we assign the server reference
-        selfAddress = new IpAddress(bind_addr, bind_port);
-        boolean isServerCreated = createServer();
-        while (!isServerCreated && bind_port < bind_port + port_range) {
-            //Keep trying to create server until
-            bind_port++;
-            selfAddress = new IpAddress(bind_addr, bind_port);
-            isServerCreated = createServer();
-            //TODO: Fix this to get valid port numbers
+        ((NonBlockingPassRegularMessagesUpDirectly) msg_processing_policy).start();
+        log.info("%s: using the %s transport with %s", local_addr, getTransportType(), serverChannel.getSimpleName());
+        allocator = createAllocator();
+        if (warm_up) {
+            // Runs on the event loops while binding and while the rest of the stack starts, ahead of their first tasks
+            warmUp();
+        }
+        flushPolicy = new FlushPolicy(flush_max_pending_bytes, flush_max_pending_messages, flush_max_delay);
+        server = new NettyConnection(bind_addr, this, log, bossGroup, workerGroup,
+              clientGroup != null ? clientGroup : workerGroup,
+              serverChannel, clientChannel, allocator, busyPoll, flushPolicy, frameCompression, compactFrames, frameSpill, tls,
+              transportMetrics, clockSync, idleConnections, connectionHealth, striping, socketTuning);
+        bind();
+        if (preconnect_initial_hosts) {
+            connectInitialHosts();
         }
-        if (!isServerCreated) {
-            selfAddress = null;
-            throw new BindException("No port found to bind within port range");
+        if (event_loop_probe_interval > 0) {
+            eventLoopMetrics = clientGroup != null
+                  ? new EventLoopMetrics(event_loop_probe_interval, workerGroup, clientGroup)
+                  : new EventLoopMetrics(event_loop_probe_interval, workerGroup);
+        }
+    }
+
+    private void initializeNettyGroupsIfNecessary() throws Exception {
+        boolean fellBack = false;
+        for (;;) {
+            boolean ioUring = use_io_uring, nativeTransport = use_native_transport;
+            List<EventLoopGroup> created = createEventLoopGroups();
+            if (use_io_uring == ioUring && use_native_transport == nativeTransport) {
+                break;
+            }
+            // A group fell back to another transport after the ones before it were created with the previous one
+            fellBack = true;
+            for (EventLoopGroup group : created) {
+                group.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+            }
+            if (created.contains(bossGroup)) {
+                bossGroup = null;
+            }
+            if (created.contains(workerGroup)) {
+                workerGroup = null;
+            }
+            if (created.contains(clientGroup)) {
+                clientGroup = null;
+            }
+        }
+        if (fellBack) {
+            if (defaultServerChannel) {
+                serverChannel = serverChannel();
+            }
+            if (defaultClientChannel) {
+                clientChannel = clientChannel();
+            }
         }
     }
 
-    private void initializeNettyGroupsIfNecessary() {
+    private List<EventLoopGroup> createEventLoopGroups() throws Exception {
+        if (busyPoll != null && !use_native_transport) {
+            log.warn("busy_poll requires the native transport (disabling it)");
+            busyPoll = null;
+        }
+        List<EventLoopGroup> created = new ArrayList<>(3);
         if (bossGroup == null) {
             bossGroup = createEventLoopGroup(1);
+            created.add(bossGroup);
         }
+        AffinityProvider affinity = createAffinityProvider();
         if (workerGroup == null) {
-            workerGroup = createEventLoopGroup(0);
+            workerPlacement = new EventLoopPlacement("jgroups-netty-worker", EventLoopPlacement.parseCpuList(worker_cpus),
+                  affinity);
+            workerGroup = createWorkerGroup(busyPoll != null ? busy_poll_event_loops : worker_threads,
+                  workerPlacement.threadFactory());
+            created.add(workerGroup);
+        }
+        if (clientGroup == null && client_worker_threads > 0) {
+            clientPlacement = new EventLoopPlacement("jgroups-netty-client",
+                  EventLoopPlacement.parseCpuList(client_worker_cpus), affinity);
+            clientGroup = createWorkerGroup(client_worker_threads, clientPlacement.threadFactory());
+            created.add(clientGroup);
+        }
+        return created;
+    }
+
+    private EventLoopGroup createWorkerGroup(int numThreads, ThreadFactory threadFactory) {
+        return busyPoll != null ? busyPoll.newEventLoopGroup(numThreads, threadFactory)
+              : createEventLoopGroup(numThreads, threadFactory);
+    }
+
+    protected AffinityProvider createAffinityProvider() throws Exception {
+        if (affinity_provider == null) {
+            return new TasksetAffinityProvider();
         }
+        return (AffinityProvider) Util.loadClass(affinity_provider, getClass()).getDeclaredConstructor().newInstance();
+    }
+
+    protected PooledByteBufAllocator createAllocator() {
+        int pageSize = PooledByteBufAllocator.defaultPageSize();
+        if (Integer.bitCount(allocator_chunk_size) != 1 || allocator_chunk_size < pageSize) {
+            throw new IllegalArgumentException("allocator_chunk_size must be a power of 2 of at least " + pageSize +
+                  ": " + allocator_chunk_size);
+        }
+        int maxOrder = Integer.numberOfTrailingZeros(allocator_chunk_size / pageSize);
+        int arenas = allocator_arenas;
+        if (arenas <= 0) {
+            arenas = workerGroup instanceof MultithreadEventExecutorGroup
+                  ? ((MultithreadEventExecutorGroup) workerGroup).executorCount()
+                  : NettyRuntime.availableProcessors() * 2;
+            if (clientGroup instanceof MultithreadEventExecutorGroup) {
+                arenas += ((MultithreadEventExecutorGroup) clientGroup).executorCount();
+            }
+        }
+        return new PooledByteBufAllocator(allocator_prefer_direct, arenas, arenas, pageSize, maxOrder,
+              allocator_small_cache_size, allocator_normal_cache_size, allocator_cache_all_threads);
+    }
+
+    /**
+     * Disables io_uring and the native transport if they aren't available before the channel classes are chosen, so
+     * they match the event loops created later unless creating those fails nonetheless, see
+     * {@link #createEventLoopGroup(int, ThreadFactory)}. Fails instead if {@link #native_transport_required} is set.
+     */
+    protected void checkTransportAvailability() {
+        // The io_uring incubator's native library predates some JNI methods of netty-transport-native-unix-common,
+        // e.g. Errors.errorEHOSTUNREACH(). Loading the epoll library first registers all of them
+        if (use_io_uring && !Epoll.isAvailable()) {
+            log.debug("epoll isn't available, io_uring may fail to map some errors: %s", Epoll.unavailabilityCause());
+        }
+        if (use_io_uring && !IOUring.isAvailable()) {
+            transportUnavailable("io_uring", IOUring.unavailabilityCause());
+            use_io_uring = false;
+        }
+        if (use_native_transport && !use_io_uring && !Epoll.isAvailable()) {
+            transportUnavailable("native transport", Epoll.unavailabilityCause());
+            use_native_transport = false;
+        }
+    }
+
+    private void transportUnavailable(String transport, Throwable cause) {
+        if (native_transport_required) {
+            throw new IllegalStateException(transport + " isn't available and native_transport_required is set", cause);
+        }
+        log.warn("%s isn't available (disabling it): %s", transport, cause);
     }
 
     protected EventLoopGroup createEventLoopGroup(int numThreads) {
+        return createEventLoopGroup(numThreads, null);
+    }
+
+    /**
+     * Creates the loops with io_uring or the native transport, falling back to the next one if that fails even though
+     * it is available, e.g. when io_uring_setup runs out of locked memory. The groups created before and the channel
+     * classes are then replaced by {@link #initializeNettyGroupsIfNecessary()} to match.
+     *
+     * @param numThreads number of loops, 0 for Netty's default
+     * @param threadFactory creates the threads of the loops, null for Netty's default
+     */
+    protected EventLoopGroup createEventLoopGroup(int numThreads, ThreadFactory threadFactory) {
         if(use_io_uring) {
             try {
-                return numThreads > 0? new IOUringEventLoopGroup(numThreads) : new IOUringEventLoopGroup();
+                return new IOUringEventLoopGroup(numThreads, threadFactory, io_uring_ring_size,
+                      io_uring_iosqe_async_threshold);
             }
             catch(Throwable t) {
-                log.warn("failed to use io_uring (disabling it): " + t.getMessage());
+                transportFailed("io_uring", t);
                 use_io_uring=false;
             }
         }
         if(use_native_transport) {
             try {
-//                if(Util.checkForMac())
-//                    return numThreads > 0? new KQueueEventLoopGroup(numThreads) : new KQueueEventLoopGroup();
-                return numThreads > 0? new EpollEventLoopGroup(numThreads) : new EpollEventLoopGroup(); // Linux
+                return new EpollEventLoopGroup(numThreads, threadFactory); // Linux
             }
             catch(Throwable t) {
-                log.warn("failed to use native transport", t);
+                transportFailed("native transport", t);
                 use_native_transport=false;
             }
         }
         log.debug("falling back to " + NioEventLoopGroup.class.getSimpleName());
-        return numThreads > 0? new NioEventLoopGroup(numThreads) : new NioEventLoopGroup();
+        return new NioEventLoopGroup(numThreads, threadFactory);
+    }
+
+    private void transportFailed(String transport, Throwable cause) {
+        if (native_transport_required) {
+            throw new IllegalStateException("failed to create the " + transport + " event loops and " +
+                  "native_transport_required is set", cause);
+        }
+        // Netty wraps the failure of the first loop, e.g. of io_uring_setup
+        log.warn("failed to create the %s event loops (disabling it): %s", transport,
+              cause.getCause() != null ? cause.getCause() : cause);
     }
 
     @Override
     public void stop() {
+        if (eventLoopMetrics != null) {
+            eventLoopMetrics.stop();
+        }
         // Shut down without a quiet period
         bossGroup.shutdownGracefully(0, 10, TimeUnit.SECONDS);
         workerGroup.shutdownGracefully(0, 10, TimeUnit.SECONDS);
+        if (clientGroup != null) {
+            clientGroup.shutdownGracefully(0, 10, TimeUnit.SECONDS);
+        }
         super.stop();
     }
 
     // Most of this method is copied from TP#receive
     @Override
     public void onReceive(Address sender, DataInput in) throws Exception {
+        if (tracer != null) {
+            tracer.frameRead();
+        }
         receive(sender, in);
     }
 
+    @Override
+    public void onReadComplete() {
+        ((NonBlockingPassRegularMessagesUpDirectly) msg_processing_policy).readComplete();
+    }
+
     public PhysicalAddress toPhysicalAddress(Address address) {
         if (address instanceof PhysicalAddress) {
             return (PhysicalAddress) address;
         }
+        Destination destination = destinations.get(address);
+        if (destination != null) {
+            return destination.physicalAddress();
+        }
         return (PhysicalAddress) down(new Event(Event.GET_PHYSICAL_ADDRESS, address));
     }
 
+    /**
+     * @return the destination to send to the given member, or null if its physical address isn't known yet
+     */
+    protected Destination destination(Address address) {
+        Destination destination = destinations.get(address);
+        if (destination != null) {
+            return destination;
+        }
+        PhysicalAddress physicalAddress = toPhysicalAddress(address);
+        if (physicalAddress == null) {
+            return null;
+        }
+        destination = new Destination(address, (IpAddress) physicalAddress);
+        Destination existing = destinations.putIfAbsent(address, destination);
+        if (existing != null) {
+            return existing;
+        }
+        if (!(address instanceof PhysicalAddress)) {
+            logicalAddresses.put(physicalAddress, address);
+        }
+        return destination;
+    }
+
+    /**
+     * @return the destinations of all members but this one, or null if the physical address of one of them is unknown
+     */
+    protected Destination[] memberDestinations() {
+        View currentView = view;
+        MemberDestinations cached = memberDestinations;
+        if (cached != null && cached.view == currentView) {
+            return cached.destinations;
+        }
+        if (currentView == null) {
+            return null;
+        }
+        List<Destination> resolved = new ArrayList<>(currentView.size());
+        for (Address mbr : currentView.getMembers()) {
+            Destination destination = destination(mbr);
+            if (destination == null) {
+                return null;
+            }
+            if (!Objects.equals(local_physical_addr, destination.physicalAddress())) {
+                resolved.add(destination);
+            }
+        }
+        Destination[] destinations = resolved.toArray(new Destination[0]);
+        memberDestinations = new MemberDestinations(currentView, destinations);
+        return destinations;
+    }
+
+    // Members that left may come back with a different physical address, so their destinations are dropped
+    private void viewChanged() {
+        destinations.keySet().retainAll(members);
+        logicalAddresses.values().retainAll(members);
+        if (idleConnections != null) {
+            idleConnections.retainAll(logicalAddresses.keySet());
+        }
+        if (connectionHealth != null) {
+            connectionHealth.retainAll(logicalAddresses.keySet());
+        }
+        if (striping != null) {
+            striping.retainAll(logicalAddresses.keySet());
+        }
+        if (socketTuning != null) {
+            socketTuning.retainAll(logicalAddresses.keySet());
+        }
+    }
+
     @Override
     public Object down(Event evt) {
         Object retVal = super.down(evt);
         switch (evt.getType()) {
             case Event.TMP_VIEW:
             case Event.VIEW_CHANGE:
+                viewChanged();
                 ((NonBlockingPassRegularMessagesUpDirectly)msg_processing_policy).viewChange(view.getMembers());
                 break;
             case Event.USER_DEFINED:
                 if (evt instanceof MessageCompleteEvent) {
                     Message msg = evt.getArg();
                     ((NonBlockingPassRegularMessagesUpDirectly) msg_processing_policy).completedMessage(msg);
+                } else if (evt instanceof MessagesCompleteEvent) {
+                    Collection<Message> msgs = evt.getArg();
+                    ((NonBlockingPassRegularMessagesUpDirectly) msg_processing_policy).completedMessages(msgs);
                 } else if (evt instanceof WatermarkOverflowEvent) {
                     Address address = ((WatermarkOverflowEvent) evt).address();
                     Address physicalAddress = toPhysicalAddress(address);
 
                     Channel channel = server.getServerChannelForAddress(physicalAddress, true);
-                    channel.config().setAutoRead(!((WatermarkOverflowEvent) evt).wasOverFlow());
+                    boolean overflow = ((WatermarkOverflowEvent) evt).wasOverFlow();
+                    if (channel != null) {
+                        // Null once the connection closed, e.g. as idle
+                        channel.config().setAutoRead(!overflow);
+                    }
+                    striping.setAutoRead((IpAddress) physicalAddress, !overflow);
+                    transportMetrics.peer((IpAddress) physicalAddress).readPaused(overflow);
                 }
                 break;
         }
@@ -265,10 +1313,40 @@ public class NettyTP extends TP implements NettyReceiverListener {
                 log.trace("%s Member %s is no longer available for writing, sending event up to notify user to reduce pressure", addr(), outboundAddress);
             }
         }
-        Address logicalAddress = logical_addr_cache.getByValue(outboundAddress);
+        Address logicalAddress = logicalAddresses.get(outboundAddress);
+        if (logicalAddress == null) {
+            logicalAddress = logical_addr_cache.getByValue(outboundAddress);
+        }
         up(new MemberAvailabilityEvent(logicalAddress, writeable));
     }
 
+    @Override
+    public boolean releaseIdle(PhysicalAddress sender) {
+        Address logicalAddress = logicalAddresses.get(sender);
+        if (logicalAddress == null) {
+            logicalAddress = logical_addr_cache.getByValue(sender);
+        }
+        return logicalAddress == null
+              || ((NonBlockingPassRegularMessagesUpDirectly) msg_processing_policy).releaseIdle(logicalAddress);
+    }
+
+    @Override
+    public void peerUnreachable(PhysicalAddress peer, String reason) {
+        Address logicalAddress = logicalAddresses.get(peer);
+        if (logicalAddress == null) {
+            logicalAddress = logical_addr_cache.getByValue(peer);
+        }
+        // Fails the writes stuck in the connections, the next message sent opens a new one
+        server.closeConnections(peer);
+        if (logicalAddress == null || !members.contains(logicalAddress)) {
+            return;
+        }
+        log.warn("%s: suspecting %s (%s): %s", addr(), logicalAddress, peer, reason);
+        // Off the event loop, as the failure detection protocols may block. VERIFY_SUSPECT removes members from the list
+        List<Address> suspects = new ArrayList<>(List.of(logicalAddress));
+        thread_pool.execute(() -> up(new Event(Event.SUSPECT, suspects)));
+    }
+
     @Override
     public void onError(Throwable ex) {
         log.error("error received at Netty transport ", ex);
@@ -281,19 +1359,48 @@ public class NettyTP extends TP implements NettyReceiverListener {
 
     @Override
     protected void _send(Message msg, Address dest) {
+        if (bundling) {
+            // Every message goes through the bundler, otherwise the frames of a sender would overtake each other. It
+            // writes the message into its own buffer on its own thread and never releases the payload, so the bundler
+            // gets a copy and the reference the transport owns is released right away, as after a direct write
+            Message bundled = msg;
+            if (msg instanceof ByteBufMessage) {
+                bundled = ((ByteBufMessage) msg).copyToHeap();
+            } else if (msg instanceof CompositeByteBufMessage) {
+                bundled = ((CompositeByteBufMessage) msg).copyToHeap();
+            }
+            if (bundled != msg) {
+                ((Refcountable<?>) msg).decr();
+            }
+            super._send(bundled, dest);
+            return;
+        }
         if(stats) {
             msg_stats.incrNumMsgsSent(1);
             msg_stats.incrNumBytesSent(msg.size());
         }
+        if (msg instanceof FileRegionMessage) {
+            sendFileRegion((FileRegionMessage) msg, dest);
+            return;
+        }
+        MessageTracer.Sample sample = tracer != null ? tracer.sampleSend(msg) : null;
+        if (sample != null) {
+            // The copy is sent instead and holds its own reference to the payload, which the write releases
+            if (msg instanceof Refcountable) {
+                ((Refcountable<?>) msg).decr();
+            }
+            msg = sample.message();
+        }
         // Note this completely bypasses the bundler
         ByteBuf messageBytes = null;
         if (dest == null) {
+            Destination[] targets = memberDestinations();
+            if (targets == null) {
+                sendToMembers(msg, sample);
+                return;
+            }
             // Not we send the original message first and then copy afterwards - this is safe because refCnt is 2
-            for (Address mbr : members) {
-                PhysicalAddress target = mbr instanceof PhysicalAddress ? (PhysicalAddress) mbr : logical_addr_cache.get(mbr);
-                if (Objects.equals(local_physical_addr, target)) {
-                    continue;
-                }
+            for (Destination target : targets) {
                 ByteBuf bufToUse;
                 if (messageBytes != null) {
                     // Share memory region between commands but retain the reference so it won't be released
@@ -302,18 +1409,92 @@ public class NettyTP extends TP implements NettyReceiverListener {
                 } else {
                     // Need to retain so next loop can reference the buffer in case it was consumed already
                     bufToUse = messageBytes = bufFromMessage(msg, dest).retain();
+                    if (sample != null) {
+                        sample.serialized();
+                    }
                 }
                 try {
-                    bufSend(bufToUse, msg.isFlagSet(Message.Flag.OOB), target);
+                    server.send(target, msg.isFlagSet(Message.Flag.OOB), bufToUse, sample);
                 } catch (Throwable t) {
-                    log.error(Util.getMessage("FailureSendingToPhysAddr"), local_addr, mbr, t);
+                    log.error(Util.getMessage("FailureSendingToPhysAddr"), local_addr, target.address(), t);
                 }
             }
             if (messageBytes != null) {
                 messageBytes.release();
             }
         } else {
-            bufSend(bufFromMessage(msg, dest), msg.isFlagSet(Message.Flag.OOB), dest);
+            Destination target = destination(dest);
+            if (target == null) {
+                if (log.isTraceEnabled()) {
+                    log.trace("%s: physical address for %s not found, dropping message", local_addr, dest);
+                }
+                return;
+            }
+            ByteBuf buf = bufFromMessage(msg, dest);
+            if (sample != null) {
+                sample.serialized();
+            }
+            server.send(target, msg.isFlagSet(Message.Flag.OOB), buf, sample);
+        }
+    }
+
+    // Slow path of a multicast while the physical address of some members is still unknown
+    private void sendToMembers(Message msg, MessageTracer.Sample sample) {
+        ByteBuf messageBytes = null;
+        for (Address mbr : members) {
+            Destination target = destination(mbr);
+            if (target == null || Objects.equals(local_physical_addr, target.physicalAddress())) {
+                continue;
+            }
+            ByteBuf bufToUse;
+            if (messageBytes != null) {
+                bufToUse = messageBytes.retainedSlice(0, messageBytes.writerIndex());
+            } else {
+                bufToUse = messageBytes = bufFromMessage(msg, null).retain();
+                if (sample != null) {
+                    sample.serialized();
+                }
+            }
+            try {
+                server.send(target, msg.isFlagSet(Message.Flag.OOB), bufToUse, sample);
+            } catch (Throwable t) {
+                log.error(Util.getMessage("FailureSendingToPhysAddr"), local_addr, mbr, t);
+            }
+        }
+        if (messageBytes != null) {
+            messageBytes.release();
+        }
+    }
+
+    // The region is written separately to each target, so only the frame header is shared
+    private void sendFileRegion(FileRegionMessage msg, Address dest) {
+        List<Destination> targets = new ArrayList<>();
+        if (dest != null) {
+            targets.add(destination(dest));
+        } else {
+            Destination[] resolved = memberDestinations();
+            if (resolved != null) {
+                targets.addAll(Arrays.asList(resolved));
+            } else {
+                for (Address mbr : members) {
+                    targets.add(destination(mbr));
+                }
+            }
+        }
+        ByteBuf header = bufFromMessage(server.replyAdder, msg, dest);
+        try {
+            for (Destination target : targets) {
+                if (target == null || Objects.equals(local_physical_addr, target.physicalAddress())) {
+                    continue;
+                }
+                try {
+                    server.send(target, msg.isFlagSet(Message.Flag.OOB), header.retainedDuplicate(), msg);
+                } catch (Throwable t) {
+                    log.error(Util.getMessage("FailureSendingToPhysAddr"), local_addr, target.address(), t);
+                }
+            }
+        } finally {
+            header.release();
         }
     }
 
@@ -322,9 +1503,12 @@ public class NettyTP extends TP implements NettyReceiverListener {
         if (msg instanceof ByteBufMessage) {
             return bufFromMessage(replyAdder, (ByteBufMessage) msg, dest);
         }
+        if (msg instanceof CompositeByteBufMessage) {
+            return bufFromMessage(replyAdder, (CompositeByteBufMessage) msg, dest);
+        }
 
         int totalSize = msg.size() + TP.MSG_OVERHEAD + replyAdder.length;
-        ByteBuf buf = ByteBufAllocator.DEFAULT.buffer(totalSize + Integer.BYTES, totalSize + Integer.BYTES);
+        ByteBuf buf = allocator.buffer(totalSize + Integer.BYTES, totalSize + Integer.BYTES);
         buf.writeInt(totalSize);
         buf.writeBytes(replyAdder);
         try (ByteBufOutputStream bbos = new ByteBufOutputStream(buf)) {
@@ -338,7 +1522,7 @@ public class NettyTP extends TP implements NettyReceiverListener {
 
         private ByteBuf bufFromMessage(byte[] replyAdder, ByteBufMessage msg, Address dest) {
             int bufferSize = (Integer.BYTES * 2) + replyAdder.length + TP.MSG_OVERHEAD + msg.nonPayloadSize();
-            ByteBuf first = ByteBufAllocator.DEFAULT.buffer(bufferSize, bufferSize);
+            ByteBuf first = allocator.buffer(bufferSize, bufferSize);
             ByteBuf payload = msg.getBuf();
             first.writeInt(bufferSize - Integer.BYTES + payload.readableBytes());
             first.writeBytes(replyAdder);
@@ -362,28 +1546,164 @@ public class NettyTP extends TP implements NettyReceiverListener {
                 log.trace(Util.getMessage("SendFailure"), local_addr, (dest == null? "cluster" : dest), msg.size(),
                       e.toString(), msg.printHeaders());
             }
-            return Unpooled.compositeBuffer(2).addComponent(true, first)
+            return allocator.compositeBuffer(2).addComponent(true, first)
                   .addComponent(true, payload);
         }
 
-    private void byteBufSend(ByteBufMessage msg, Address dest) {
-        server.send((IpAddress) toPhysicalAddress(dest), msg.isFlagSet(Message.Flag.OOB), msg);
+    // Only the frame up to the bytes of the region, whose length is already included in the length field
+    private ByteBuf bufFromMessage(byte[] replyAdder, FileRegionMessage msg, Address dest) {
+        int bufferSize = Integer.BYTES + replyAdder.length + TP.MSG_OVERHEAD + msg.nonPayloadSize()
+              + msg.payloadHeaderSize();
+        ByteBuf header = allocator.buffer(bufferSize, bufferSize);
+        header.writeInt(bufferSize - Integer.BYTES + msg.getLength());
+        header.writeBytes(replyAdder);
+
+        try (ByteBufOutputStream bbos = new ByteBufOutputStream(header)) {
+            bbos.writeShort(Version.version);
+            bbos.writeByte(msg.getDest() == null ? MULTICAST : 0);
+            bbos.writeShort(msg.getType());
+            msg.writeNonPayload(bbos);
+            msg.writePayloadHeader(bbos);
+            assert header.writerIndex() == header.capacity();
+        } catch (IOException e) {
+            log.trace(Util.getMessage("SendFailure"), local_addr, (dest == null? "cluster" : dest), msg.size(),
+                  e.toString(), msg.printHeaders());
+        }
+        return header;
+    }
+
+    // Same as for a ByteBufMessage, but each component becomes a buffer of the gather write
+    private ByteBuf bufFromMessage(byte[] replyAdder, CompositeByteBufMessage msg, Address dest) {
+        int bufferSize = Integer.BYTES + replyAdder.length + TP.MSG_OVERHEAD + msg.nonPayloadSize()
+              + msg.payloadHeaderSize();
+        ByteBuf first = allocator.buffer(bufferSize, bufferSize);
+        first.writeInt(bufferSize - Integer.BYTES + msg.getLength());
+        first.writeBytes(replyAdder);
+
+        try (ByteBufOutputStream bbos = new ByteBufOutputStream(first)) {
+            bbos.writeShort(Version.version);
+            bbos.writeByte(msg.getDest() == null ? MULTICAST : 0);
+            bbos.writeShort(msg.getType());
+            msg.writeNonPayload(bbos);
+            msg.writePayloadHeader(bbos);
+            assert first.writerIndex() == first.capacity();
+        } catch (IOException e) {
+            log.trace(Util.getMessage("SendFailure"), local_addr, (dest == null? "cluster" : dest), msg.size(),
+                  e.toString(), msg.printHeaders());
+        }
+        CompositeByteBuf frame = allocator.compositeBuffer(1 + msg.numComponents()).addComponent(true, first);
+        for (ByteBuf component : msg.components()) {
+            frame.addComponent(true, component);
+        }
+        return frame;
     }
 
-    private void bufSend(ByteBuf buf, boolean oob, Address dest) {
-        server.send((IpAddress) toPhysicalAddress(dest), oob, buf);
+    // Tries the ports of the range in turn, skipping those a plain socket can't bind, which is much cheaper than a
+    // failed bind of a Netty channel. Another process may still take a port in between, so a failed bind moves on
+    // to the next port as well
+    private void bind() throws Exception {
+        int last = bind_port == 0 ? 0 : Math.min(bind_port + port_range, 65535);
+        for (int port = bind_port; port <= last; port++) {
+            if (port != 0 && !isPortFree(port)) {
+                continue;
+            }
+            // Set before binding, as members may send to us as soon as we listen
+            selfAddress = new IpAddress(bind_addr, port);
+            try {
+                bind_port = server.bind(port);
+                selfAddress = new IpAddress(bind_addr, bind_port);
+                return;
+            } catch (BindException | Errors.NativeIoException e) {
+                log.trace("%s: failed binding to %s:%d: %s", local_addr, bind_addr, port, e);
+            }
+        }
+        selfAddress = null;
+        throw new BindException(String.format("No port found to bind to on %s between %d and %d", bind_addr,
+              bind_port, last));
     }
 
-    private boolean createServer() {
-        try {
-            server = new NettyConnection(bind_addr, bind_port, this, log, bossGroup, workerGroup,
-                  serverChannel, clientChannel);
-            server.run();
-        } catch (BindException | Errors.NativeIoException | InterruptedException exception) {
+    protected boolean isPortFree(int port) {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(bind_addr, port), 1);
+            return true;
+        } catch (IOException e) {
             return false;
         }
-        return true;
     }
+
+    // Netty only starts the thread of an event loop with its first task, and the allocator only binds a thread to an
+    // arena, allocating the first chunk of the arena, with its first allocation. Both would otherwise happen on the
+    // first connection or message
+    private void warmUp() {
+        for (EventLoopGroup group : Arrays.asList(workerGroup, clientGroup)) {
+            if (group != null) {
+                group.forEach(loop -> loop.execute(() -> allocator.buffer().release()));
+            }
+        }
+    }
+
+    // Discovery sends to the initial hosts once the stack is started, by which time their connections are open or
+    // on the way
+    private void connectInitialHosts() {
+        TCPPING ping = stack != null ? stack.findProtocol(TCPPING.class) : null;
+        if (ping == null) {
+            return;
+        }
+        for (PhysicalAddress host : ping.getInitialHosts()) {
+            if (host instanceof IpAddress && !host.equals(selfAddress)) {
+                server.connect((IpAddress) host);
+            }
+        }
+    }
+
+    protected CompressionCodec compressionCodec() {
+        if (compression == null || compression.equalsIgnoreCase("none")) {
+            return null;
+        }
+        CompressionCodec codec = CompressionCodec.valueOf(compression.toUpperCase());
+        if (!codec.isAvailable()) {
+            throw new IllegalArgumentException("compression " + compression + " requires " +
+                  (codec == CompressionCodec.LZ4 ? "lz4-java" : "zstd-jni") + " on the classpath");
+        }
+        return codec;
+    }
+
+    // Pings measure the round trip time adaptive tuning needs as well as the clock offsets of tracing
+    protected long clockProbeInterval() {
+        long interval = trace_sample_rate > 0 ? trace_clock_probe_interval : 0;
+        if (adaptive_tuning_interval > 0) {
+            interval = interval > 0 ? Math.min(interval, adaptive_tuning_interval) : adaptive_tuning_interval;
+        }
+        return interval;
+    }
+
+    protected List<InetAddress> stripeAddresses() throws UnknownHostException {
+        List<InetAddress> addresses = new ArrayList<>();
+        if (stripe_addrs != null) {
+            for (String address : Util.parseCommaDelimitedStrings(stripe_addrs)) {
+                InetAddress resolved = InetAddress.getByName(address);
+                if (resolved.equals(bind_addr) || addresses.contains(resolved)) {
+                    throw new IllegalArgumentException("stripe_addrs has to list addresses other than bind_addr " +
+                          "once: " + stripe_addrs);
+                }
+                addresses.add(resolved);
+            }
+        }
+        return addresses;
+    }
+
+    protected Tls createTls() throws Exception {
+        if (tls_keystore == null) {
+            throw new IllegalArgumentException("use_tls requires tls_keystore to be set");
+        }
+        return Tls.create(tls_provider, tls_keystore, tls_keystore_password, tls_keystore_type, tls_truststore,
+              tls_truststore_password, ClientAuth.valueOf(tls_client_auth.toUpperCase()),
+              tls_protocols != null ? Util.parseCommaDelimitedStrings(tls_protocols) : null,
+              tls_ciphers != null ? Util.parseCommaDelimitedStrings(tls_ciphers) : null,
+              tls_session_cache_size, tls_session_timeout, tls_wrap_data_size, tls_handshake_timeout);
+    }
+
     protected Class<? extends ServerChannel> serverChannel() {
         if(use_io_uring)
             return IOUringServerSocketChannel.class;
@@ -405,4 +1725,15 @@ public class NettyTP extends TP implements NettyReceiverListener {
         }
         return NioSocketChannel.class;
     }
+
+    // The destinations of a view are only valid as long as it is the current view
+    private static class MemberDestinations {
+        final View view;
+        final Destination[] destinations;
+
+        MemberDestinations(View view, Destination[] destinations) {
+            this.view = view;
+            this.destinations = destinations;
+        }
+    }
 }
@@ -0,0 +1,93 @@
+package org.jgroups.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+/**
+ * Copies {@link ByteBuf} payloads to and from the {@link DataOutput}s and {@link DataInput}s used outside the Netty
+ * pipeline, e.g. for loopback copies, bridges and state transfer, in bulk rather than one byte at a time.
+ * <p>
+ * Lives in this package to write straight into the array of a {@link ByteArrayDataOutputStream}.
+ */
+public final class ByteBufStreams {
+   // Size of the intermediate array used for outputs without a bulk path
+   private static final int CHUNK_SIZE = 8 * 1024;
+
+   private ByteBufStreams() { }
+
+   /**
+    * Writes the readable bytes of {@code buf} to {@code out}, without changing the indexes of {@code buf}
+    */
+   public static void write(ByteBuf buf, DataOutput out) throws IOException {
+      int index = buf.readerIndex();
+      int length = buf.readableBytes();
+      if (length == 0) {
+         return;
+      }
+      if (out instanceof ByteArrayDataOutputStream) {
+         ByteArrayDataOutputStream stream = (ByteArrayDataOutputStream) out;
+         stream.ensureCapacity(length);
+         buf.getBytes(index, stream.buf, stream.pos, length);
+         stream.pos += length;
+      } else if (out instanceof ByteBufferOutputStream) {
+         ByteBuffer target = ((ByteBufferOutputStream) out).getBuffer();
+         ByteBuffer slice = target.duplicate();
+         // Throws BufferOverflowException like the stream itself when the payload doesn't fit
+         slice.limit(slice.position() + length);
+         buf.getBytes(index, slice);
+         target.position(slice.position());
+      } else if (out instanceof OutputStream) {
+         buf.getBytes(index, (OutputStream) out, length);
+      } else if (buf.hasArray()) {
+         out.write(buf.array(), buf.arrayOffset() + index, length);
+      } else {
+         byte[] chunk = new byte[Math.min(length, CHUNK_SIZE)];
+         for (int i = index; i < index + length; i += chunk.length) {
+            int n = Math.min(chunk.length, index + length - i);
+            buf.getBytes(i, chunk, 0, n);
+            out.write(chunk, 0, n);
+         }
+      }
+   }
+
+   /**
+    * @return whether the buffer is an unpooled heap buffer, or derived from one, which the garbage collector frees even
+    * if it is never released
+    */
+   public static boolean isUnpooledHeap(ByteBuf buf) {
+      return buf.hasArray() && buf.alloc() instanceof UnpooledByteBufAllocator;
+   }
+
+   /**
+    * Reads {@code length} bytes from a {@link DataInput} that can't be sliced into a new buffer
+    */
+   public static ByteBuf read(DataInput in, int length, ByteBufAllocator allocator) throws IOException {
+      if (!(in instanceof InputStream)) {
+         byte[] array = new byte[length];
+         in.readFully(array);
+         return Unpooled.wrappedBuffer(array);
+      }
+      ByteBuf buf = allocator.buffer(length, length);
+      try {
+         while (buf.isWritable()) {
+            if (buf.writeBytes((InputStream) in, buf.writableBytes()) < 0) {
+               throw new EOFException("Expected " + length + " bytes but only " + buf.readableBytes() + " are left");
+            }
+         }
+         return buf;
+      } catch (Throwable t) {
+         buf.release();
+         throw t;
+      }
+   }
+}
@@ -0,0 +1,221 @@
+package org.jgroups.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.jgroups.Message;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.protocols.netty.NettyTP;
+import org.jgroups.stack.IpAddress;
+
+import io.netty.util.concurrent.FastThreadLocal;
+import netty.utils.ClockSync;
+
+/**
+ * Samples 1 in {@link #sampleRate} sent messages and records how long they spend in each {@link Stage} of the
+ * transport, on both the sending and the receiving member, into HdrHistograms.
+ * <p>
+ * Sampled messages are sent as a copy carrying a {@link NettyTraceHeader} with the time they were sent, as the message
+ * itself may be retransmitted by another thread at the same time. The receiver translates that time into its own
+ * clock with the offset estimated by {@link ClockSync}, so the time from send to read is only recorded once the first
+ * clock probe round trip to the sender completed.
+ */
+public class MessageTracer {
+   public enum Stage {
+      /** From {@code _send} until the message was serialized into a buffer */
+      SERIALIZE,
+      /** From serialization until the write ran on the channel's event loop */
+      EVENT_LOOP_QUEUE,
+      /** From the write on the event loop until Netty wrote it to the socket */
+      SOCKET_WRITE,
+      /** From {@code _send} on the sender until the frame was read on the receiver, corrected by the clock offset */
+      SEND_TO_READ,
+      /** From reading the frame until the message was handed to the message processing policy */
+      DECODE,
+      /** Time spent queued behind other messages of the same sender before being passed up */
+      BACKLOG,
+      /** Time spent passing the message up the stack */
+      DELIVER,
+      /** From being passed up until a {@link MessageCompleteEvent} completed an async message */
+      COMPLETE
+   }
+
+   private static final FastThreadLocal<long[]> READ_NANOS = new FastThreadLocal<long[]>() {
+      @Override
+      protected long[] initialValue() {
+         return new long[1];
+      }
+   };
+
+   private final int sampleRate;
+   private final NettyTP transport;
+   private final ClockSync clockSync;
+   private final Histogram[] histograms = new Histogram[Stage.values().length];
+   // Receive timestamps of sampled messages that were not yet delivered or completed
+   private final Map<Message, long[]> inFlight = new ConcurrentHashMap<>();
+
+   public MessageTracer(int sampleRate, NettyTP transport, ClockSync clockSync) {
+      this.sampleRate = sampleRate;
+      this.transport = transport;
+      this.clockSync = clockSync;
+      for (int i = 0; i < histograms.length; i++) {
+         histograms[i] = new ConcurrentHistogram(3);
+      }
+   }
+
+   private void record(Stage stage, long nanos) {
+      if (nanos >= 0) {
+         histograms[stage.ordinal()].recordValue(nanos);
+      }
+   }
+
+   /**
+    * Decides whether to sample the given message
+    *
+    * @return the sample to pass along with the message, whose {@link Sample#message()} has to be sent in its place, or
+    * null if it isn't sampled
+    */
+   public Sample sampleSend(Message msg) {
+      if (ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+         return null;
+      }
+      long now = System.nanoTime();
+      Message traced = msg.copy(true, true).putHeader(NettyTraceHeader.ID, new NettyTraceHeader(now));
+      return new Sample(now, traced);
+   }
+
+   /** Called whenever a frame was read, before it is decoded */
+   public void frameRead() {
+      READ_NANOS.get()[0] = System.nanoTime();
+   }
+
+   /** Called when a message is handed to the message processing policy, on the thread that read it */
+   public void received(Message msg) {
+      received(msg, true);
+   }
+
+   /**
+    * @param delivering whether {@link #delivering(Message)} and {@link #delivered(Message, boolean)} are going to be
+    *                   called for the message, otherwise only the stages up to here are recorded
+    */
+   public void received(Message msg, boolean delivering) {
+      NettyTraceHeader hdr = msg.getHeader(NettyTraceHeader.ID);
+      if (hdr == null) {
+         return;
+      }
+      long now = System.nanoTime();
+      long read = READ_NANOS.get()[0];
+      record(Stage.DECODE, now - read);
+      PhysicalAddress sender = transport.toPhysicalAddress(msg.getSrc());
+      long offset = sender instanceof IpAddress ? clockSync.offset((IpAddress) sender) : ClockSync.UNKNOWN;
+      if (offset != ClockSync.UNKNOWN) {
+         record(Stage.SEND_TO_READ, read - (hdr.sendNanos() + offset));
+      }
+      if (delivering) {
+         inFlight.put(msg, new long[]{now, 0});
+      }
+   }
+
+   /** Called right before the message is passed up the stack */
+   public void delivering(Message msg) {
+      long[] times = inFlight.get(msg);
+      if (times != null) {
+         long now = System.nanoTime();
+         record(Stage.BACKLOG, now - times[0]);
+         times[1] = now;
+      }
+   }
+
+   /**
+    * Called after the message was passed up the stack
+    * @param async whether the message completes later, through {@link #completed(Message)}
+    */
+   public void delivered(Message msg, boolean async) {
+      long[] times = async ? inFlight.get(msg) : inFlight.remove(msg);
+      if (times != null) {
+         record(Stage.DELIVER, System.nanoTime() - times[1]);
+      }
+   }
+
+   public void completed(Message msg) {
+      long[] times = inFlight.remove(msg);
+      if (times != null) {
+         record(Stage.COMPLETE, System.nanoTime() - times[1]);
+      }
+   }
+
+   public long samples(Stage stage) {
+      return histograms[stage.ordinal()].getTotalCount();
+   }
+
+   public void reset() {
+      for (Histogram histogram : histograms) {
+         histogram.reset();
+      }
+      inFlight.clear();
+   }
+
+   /** Prints the main percentiles of each stage in microseconds */
+   public String printLatencies() {
+      StringBuilder sb = new StringBuilder();
+      for (Stage stage : Stage.values()) {
+         Histogram h = histograms[stage.ordinal()];
+         sb.append(String.format("%-16s count=%d p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f (us)%n", stage,
+               h.getTotalCount(), h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+               h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0, h.getMaxValue() / 1000.0));
+      }
+      return sb.toString();
+   }
+
+   /** Prints the full percentile distribution of each stage in microseconds */
+   public String dumpHistograms() {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (PrintStream ps = new PrintStream(out, true, StandardCharsets.UTF_8)) {
+         for (Stage stage : Stage.values()) {
+            ps.println(stage + ":");
+            histograms[stage.ordinal()].outputPercentileDistribution(ps, 1000.0);
+         }
+      }
+      return out.toString(StandardCharsets.UTF_8);
+   }
+
+   public class Sample {
+      private final long start;
+      private final Message message;
+      private long serialized;
+
+      Sample(long start, Message message) {
+         this.start = start;
+         this.message = message;
+      }
+
+      /** The copy of the sampled message with the {@link NettyTraceHeader} */
+      public Message message() {
+         return message;
+      }
+
+      public void serialized() {
+         serialized = System.nanoTime();
+         record(Stage.SERIALIZE, serialized - start);
+      }
+
+      /**
+       * @return the time the write ran on the event loop, to pass to {@link #written(long)}
+       */
+      public long onEventLoop() {
+         long now = System.nanoTime();
+         record(Stage.EVENT_LOOP_QUEUE, now - serialized);
+         return now;
+      }
+
+      public void written(long onEventLoop) {
+         record(Stage.SOCKET_WRITE, System.nanoTime() - onEventLoop);
+      }
+   }
+}
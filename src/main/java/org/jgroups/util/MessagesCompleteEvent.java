@@ -0,0 +1,16 @@
+package org.jgroups.util;
+
+import java.util.Collection;
+
+import org.jgroups.Event;
+import org.jgroups.Message;
+
+/**
+ * Same as {@link MessageCompleteEvent} for many messages at once, which may come from different senders. Completing
+ * messages in bulk wakes up the event loop of each sender only once instead of once per message.
+ */
+public class MessagesCompleteEvent extends Event {
+   public MessagesCompleteEvent(Collection<? extends Message> msgs) {
+      super(Event.USER_DEFINED, msgs);
+   }
+}
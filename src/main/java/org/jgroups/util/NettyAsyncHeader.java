@@ -9,7 +9,10 @@ import org.jgroups.Header;
 
 /**
  * Header for external users to use to mark that this message may complete asynchronously and should wait for
- * a {@link MessageCompleteEvent} with that message as the argument to notify jgroups the message has been completed
+ * a {@link MessageCompleteEvent} with that message as the argument to notify jgroups the message has been completed.
+ * Many messages can be completed at once with a {@link MessagesCompleteEvent}, and
+ * {@code msg_processing_policy.max_outstanding_async} allows further messages of the same sender to be delivered
+ * before this one completes.
  */
 public class NettyAsyncHeader extends Header {
    public static final short MAGIC_ID = 1050;
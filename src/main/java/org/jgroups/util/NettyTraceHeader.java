@@ -0,0 +1,60 @@
+package org.jgroups.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.function.Supplier;
+
+import org.jgroups.Header;
+
+/**
+ * Header added by {@link MessageTracer} to sampled messages, holding the sender's nanoTime when the message was sent
+ */
+public class NettyTraceHeader extends Header {
+   public static final short MAGIC_ID = 1051;
+   // There is no protocol owning this header, so it uses its magic id as protocol id too
+   public static final short ID = MAGIC_ID;
+
+   protected long sendNanos;
+
+   public NettyTraceHeader() {
+   }
+
+   public NettyTraceHeader(long sendNanos) {
+      this.sendNanos = sendNanos;
+   }
+
+   public long sendNanos() {
+      return sendNanos;
+   }
+
+   @Override
+   public short getMagicId() {
+      return MAGIC_ID;
+   }
+
+   @Override
+   public Supplier<? extends Header> create() {
+      return NettyTraceHeader::new;
+   }
+
+   @Override
+   public int serializedSize() {
+      return Long.BYTES;
+   }
+
+   @Override
+   public void writeTo(DataOutput out) throws IOException {
+      out.writeLong(sendNanos);
+   }
+
+   @Override
+   public void readFrom(DataInput in) throws IOException {
+      sendNanos = in.readLong();
+   }
+
+   @Override
+   public String toString() {
+      return "sent=" + sendNanos;
+   }
+}
@@ -1,17 +1,32 @@
 package org.jgroups.util;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.stream.Collectors;
 
 import org.jgroups.Address;
+import org.jgroups.ByteBufMessage;
+import org.jgroups.CompositeByteBufMessage;
+import org.jgroups.FileRegionMessage;
 import org.jgroups.Message;
 import org.jgroups.PhysicalAddress;
 import org.jgroups.Refcountable;
+import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Property;
 import org.jgroups.protocols.MsgStats;
@@ -20,6 +35,13 @@ import org.jgroups.protocols.TpHeader;
 import org.jgroups.protocols.netty.NettyTP;
 
 import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.FastThreadLocal;
+import io.netty.util.internal.PlatformDependent;
+import io.netty.util.internal.ThreadExecutorMap;
+import jdk.jfr.EventType;
+import netty.utils.TransportEvents;
+import netty.utils.VirtualThreads;
 
 /**
  * This class is very similar to {@link MaxOneThreadPerSender} and in fact many of the code is copied from there.
@@ -36,6 +58,10 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
 
    public void destroy() {
       senderTable.clear();
+      if (virtualThreads != null) {
+         virtualThreads.shutdown();
+         virtualThreads = null;
+      }
    }
 
    @Override
@@ -55,9 +81,27 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
          log.debug("msg_processing_policy.high_watermark was set 0 or less, reverting to default of " + DEFAULT_HIGH_WATER_MARK);
          high_watermark = DEFAULT_HIGH_WATER_MARK;
       }
+      if (max_outstanding_async <= 0) {
+         log.debug("msg_processing_policy.max_outstanding_async was set 0 or less, reverting to 1");
+         max_outstanding_async = 1;
+      }
       this.transport = transport;
    }
 
+   /**
+    * Invoked when the transport starts, the properties of the policy are only set after {@link #init(TP)}
+    */
+   public void start() {
+      if ((virtual_threads || offload_regular) && virtualThreads == null) {
+         if (VirtualThreads.isSupported()) {
+            virtualThreads = VirtualThreads.newExecutor("netty-delivery-");
+         } else {
+            log.warn("%s: virtual threads aren't available on Java %s, delivering OOB messages on the thread pool " +
+                  "and regular messages on the event loops", tp.addr(), System.getProperty("java.version"));
+         }
+      }
+   }
+
    @Override
    public void init(TP transport) {
       if (!(transport instanceof NettyTP)) {
@@ -75,6 +119,38 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
    @Property(description="When pending non oob messages from sender exceed this amount, additional reads will be stopped until byte total is less than low_watermark." +
          " Must be greater than 0, defaults to " + DEFAULT_HIGH_WATER_MARK)
    protected int                high_watermark = DEFAULT_HIGH_WATER_MARK;
+   @Property(description="Max number of messages with a NettyAsyncHeader from a sender that may be passed up before " +
+         "the earlier ones completed. The default of 1 delivers each message only after the previous one completed, " +
+         "higher values pipeline delivery but let messages complete out of order")
+   protected int                max_outstanding_async = 1;
+   @Property(description="Max number of OOB messages from a sender, read in the same read cycle, that are passed to " +
+         "the thread pool as a single batch. Batches are dispatched at the end of each read at the latest, 1 dispatches " +
+         "every OOB message on its own")
+   protected int                oob_batch_max_size = 16;
+   @Property(description="Delivers OOB messages on virtual threads instead of the thread pool of the transport, so " +
+         "handlers blocking on I/O don't grow the pool. Requires Java 21 or later, ignored with a warning otherwise")
+   protected boolean            virtual_threads;
+   @Property(description="Passes regular messages up on virtual threads instead of the event loops, completing each " +
+         "one when its handler returns, or when it is marked completed for a message with a NettyAsyncHeader. " +
+         "Messages of a sender are still delivered one at a time in order as long as max_outstanding_async is 1. " +
+         "Requires Java 21 or later, ignored with a warning otherwise")
+   protected boolean            offload_regular;
+
+   // Runs the delivery on virtual threads, null unless enabled and supported
+   protected ExecutorService    virtualThreads;
+
+   // OOB messages read by the current event loop, dispatched when it is done reading or when a batch is full
+   private final FastThreadLocal<OobBatcher> oobBatchers = new FastThreadLocal<>() {
+      @Override
+      protected OobBatcher initialValue() {
+         return new OobBatcher();
+      }
+   };
+
+   @ManagedAttribute(description="Whether messages are delivered on virtual threads")
+   public boolean isVirtualThreadsActive() {
+      return virtualThreads != null;
+   }
 
    @ManagedOperation(description="Dumps unicast and multicast tables")
    public String dump() {
@@ -87,6 +163,24 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
             .collect(Collectors.joining("\n", "", ""));
    }
 
+   /**
+    * Invoked on the event loop of the connection from a sender before it is closed as idle. Drops the entry of the
+    * sender, unless its messages are still being delivered, so the next connection from the sender gets a new one on
+    * its own event loop
+    *
+    * @return whether no messages of the sender are being delivered
+    */
+   public boolean releaseIdle(Address sender) {
+      Entry entry = senderTable.get(sender);
+      if (entry == null) {
+         return true;
+      }
+      if (!entry.ourEventLoop.inEventLoop() || !entry.isIdle()) {
+         return false;
+      }
+      return senderTable.remove(sender, entry);
+   }
+
    public void completedMessage(Message msg) {
       Entry entry = senderTable.get(msg.getSrc());
       if (entry != null) {
@@ -99,6 +193,35 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
       }
    }
 
+   /**
+    * Same as {@link #completedMessage(Message)} for many messages, possibly from different senders. The completions
+    * of each sender are queued before its event loop is woken up, so it drains them all in a single task.
+    */
+   public void completedMessages(Collection<? extends Message> msgs) {
+      Entry entry = null;
+      boolean drain = false;
+      for (Message msg : msgs) {
+         if (entry == null || !entry.sender.equals(msg.getSrc())) {
+            if (drain) {
+               entry.drainCompletions();
+               drain = false;
+            }
+            entry = senderTable.get(msg.getSrc());
+            if (entry == null) {
+               log.debug("%s Message %s was marked as completed, but was not present in MessageTable, most likely concurrent stop", tp.addr(), msg);
+               continue;
+            }
+         }
+         if (tp.isTrace()) {
+            log.trace("%s Marking %s as completed", tp.addr(), msg);
+         }
+         drain |= entry.enqueueCompletion(msg);
+      }
+      if (drain) {
+         entry.drainCompletions();
+      }
+   }
+
    @Override
    public boolean loopback(Message msg, boolean oob) {
       if(oob)
@@ -110,20 +233,140 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
 
    @Override
    public boolean process(MessageBatch batch, boolean oob) {
+      if (!oob) {
+         FastArray<Message> msgs = batch.array();
+         for (int i = 0; i < msgs.index(); i++) {
+            Message msg = msgs.get(i);
+            if (msg != null) {
+               msgs.set(i, detach(msg));
+            }
+         }
+      }
+      // Traced once detached, as the tracer follows the messages that are passed up. OOB batches are passed up by
+      // the handler of the thread pool, which doesn't report the delivery
+      MessageTracer tracer = transport.tracer();
+      if (tracer != null) {
+         for (Message msg : batch) {
+            tracer.received(msg, !oob);
+         }
+      }
       if (oob) {
          return super.process(batch, true);
       }
       Entry entry = senderTable.computeIfAbsent(batch.sender(), Entry::new);
+      if (!entry.ourEventLoop.inEventLoop()) {
+         return entry.handOver(() -> entry.process(batch));
+      }
       return entry.process(batch);
    }
 
    @Override
    public boolean process(Message msg, boolean oob) {
+      Message regular = !oob ? detach(msg) : msg;
+      // Traced once detached, as the tracer follows the messages that are passed up
+      MessageTracer tracer = transport.tracer();
+      if (tracer != null) {
+         tracer.received(regular);
+      }
       if (oob) {
-         return tp.getThreadPool().execute(new CloseSingleMessageHandler(msg));
+         if (oob_batch_max_size > 1) {
+            oobBatchers.get().add(msg);
+            return true;
+         }
+         return execute(new CloseSingleMessageHandler(msg));
+      }
+      Entry entry = senderTable.computeIfAbsent(regular.getSrc(), Entry::new);
+      if (!entry.ourEventLoop.inEventLoop()) {
+         return entry.handOver(() -> entry.process(regular));
+      }
+      return entry.process(regular);
+   }
+
+   // The reliable protocols keep a regular message until the ones sent before it arrived, past its release once passed
+   // up. Frames arrive out of order when the member stripes them across connections, but also when several of its
+   // threads send at the same time, as they get their seqnos before they race each other to the connection. The
+   // detached message takes over the frame without copying it and leaves its release to the garbage collector
+   protected static Message detach(Message msg) {
+      if (msg instanceof ByteBufMessage) {
+         return ((ByteBufMessage) msg).detach();
+      }
+      if (msg instanceof CompositeByteBufMessage) {
+         return ((CompositeByteBufMessage) msg).detach();
+      }
+      if (msg instanceof FileRegionMessage) {
+         return ((FileRegionMessage) msg).detach();
+      }
+      return msg;
+   }
+
+   // Runs an OOB handler on a virtual thread if enabled, otherwise on the thread pool of the transport
+   protected boolean execute(Runnable handler) {
+      ExecutorService executor = virtual_threads ? virtualThreads : null;
+      if (executor == null) {
+         return tp.getThreadPool().execute(handler);
+      }
+      try {
+         executor.execute(handler);
+         return true;
+      } catch (RejectedExecutionException e) {
+         // Only after destroy, leave it to the rejection policy of the thread pool
+         return tp.getThreadPool().execute(handler);
+      }
+   }
+
+   /**
+    * Invoked by an event loop when it is done reading from a channel, dispatches the OOB messages it read
+    */
+   public void readComplete() {
+      OobBatcher batcher = oobBatchers.getIfExists();
+      if (batcher != null) {
+         batcher.flush();
+      }
+   }
+
+   /**
+    * Gathers the OOB messages of each sender read by an event loop into batches, only accessed by that event loop
+    */
+   protected class OobBatcher {
+      // Usually only a single sender is read per cycle, so a list is cheaper than a map
+      protected final List<MessageBatch> pending = new ArrayList<>(4);
+
+      protected void add(Message msg) {
+         MessageBatch batch = null;
+         for (int i = 0; i < pending.size(); i++) {
+            MessageBatch candidate = pending.get(i);
+            if (candidate.sender().equals(msg.getSrc()) && Objects.equals(candidate.dest(), msg.getDest())) {
+               batch = candidate;
+               break;
+            }
+         }
+         if (batch == null) {
+            TpHeader hdr = msg.getHeader(tp_id);
+            batch = new MessageBatch(msg.getDest(), msg.getSrc(), new AsciiString(hdr.getClusterName()),
+                  msg.getDest() == null, MessageBatch.Mode.OOB, oob_batch_max_size);
+            pending.add(batch);
+         }
+         batch.add(msg);
+         if (batch.size() >= oob_batch_max_size) {
+            pending.remove(batch);
+            dispatch(batch);
+         }
+      }
+
+      protected void flush() {
+         for (int i = 0; i < pending.size(); i++) {
+            dispatch(pending.get(i));
+         }
+         pending.clear();
+      }
+
+      protected void dispatch(MessageBatch batch) {
+         if (batch.size() == 1) {
+            execute(new CloseSingleMessageHandler(batch.first()));
+         } else {
+            execute(new CloseBatchHandler(batch));
+         }
       }
-      Entry entry = senderTable.computeIfAbsent(msg.getSrc(), Entry::new);
-      return entry.process(msg);
    }
 
    class CloseSingleMessageHandler extends SingleMessageHandler {
@@ -133,9 +376,16 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
 
       @Override
       public void run() {
+         MessageTracer tracer = transport.tracer();
+         if (tracer != null) {
+            tracer.delivering(msg);
+         }
          try {
             super.run();
          } finally {
+            if (tracer != null) {
+               tracer.delivered(msg, false);
+            }
             if (msg instanceof Refcountable) {
                ((Refcountable<?>) msg).decr();
             }
@@ -143,12 +393,52 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
       }
    }
 
+   // Looked up once so the event isn't allocated for every message just to find out it is disabled
+   private static final EventType ASYNC_COMPLETION_EVENT = EventType.getEventType(TransportEvents.AsyncMessageCompletion.class);
+
+   class CloseBatchHandler extends BatchHandler {
+      // Protocols may remove messages from the batch, so keep them to release them afterwards
+      private final Message[] msgs;
+
+      protected CloseBatchHandler(MessageBatch batch) {
+         super(batch);
+         msgs = new Message[batch.size()];
+         int i = 0;
+         for (Message msg : batch) {
+            msgs[i++] = msg;
+         }
+      }
+
+      @Override
+      public void run() {
+         MessageTracer tracer = transport.tracer();
+         if (tracer != null) {
+            for (Message msg : msgs) {
+               tracer.delivering(msg);
+            }
+         }
+         try {
+            super.run();
+         } finally {
+            for (Message msg : msgs) {
+               if (tracer != null) {
+                  tracer.delivered(msg, false);
+               }
+               if (msg instanceof Refcountable) {
+                  ((Refcountable<?>) msg).decr();
+               }
+            }
+         }
+      }
+   }
+
    private static final AtomicLongFieldUpdater<Entry> SUBMITTED_MSGS_UPDATER = AtomicLongFieldUpdater.newUpdater(Entry.class, "submitted_msgs");
    private static final AtomicLongFieldUpdater<Entry> QUEUED_MSGS_UPDATER = AtomicLongFieldUpdater.newUpdater(Entry.class, "queued_msgs");
+   private static final AtomicIntegerFieldUpdater<Entry> DRAIN_SCHEDULED_UPDATER = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "drain_scheduled");
 
    protected class Entry implements Runnable {
-      volatile boolean running = false;
-      // This variable is only accessed from the event loop tied with the sender
+      // All fields not marked otherwise are only accessed from the event loop tied with the sender
+      protected boolean running;
       protected final ArrayDeque<Message> batch;    // used to queue messages
       protected final Thread ourThread;
       protected final EventLoop ourEventLoop;
@@ -157,10 +447,21 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
       protected volatile long               submitted_msgs;
       protected volatile long               queued_msgs;
 
-      // Needs to be volatile as we can read it from a different thread on completion
-      protected volatile Message   messageBeingProcessed;
+      // The message being passed up while running is set
+      protected Message messageBeingProcessed;
+      protected boolean completedWhileRunning;
+      // Async messages passed up whose completion hasn't been drained yet, so a message completed twice or one that
+      // was never outstanding is neither counted nor released again
+      protected final Set<Message> outstanding = Collections.newSetFromMap(new IdentityHashMap<>());
+      // Async messages completed by any thread, drained on the event loop so at most one task is scheduled for many
+      // completions and the messages are released on the thread that allocated their buffers
+      protected final Queue<Message> completions = PlatformDependent.newMpscQueue();
+      protected volatile int drain_scheduled;
       protected long batchLength;
       protected boolean sentOverFlow;
+      // Flight recorder events in progress, only set while the events are enabled
+      protected TransportEvents.ReadsPaused readsPausedEvent;
+      protected final Map<Message, TransportEvents.AsyncMessageCompletion> completionEvents = new ConcurrentHashMap<>();
 
       protected Entry(Address sender) {
          this.sender=sender;
@@ -169,10 +470,12 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
 
          PhysicalAddress physicalAddress = transport.toPhysicalAddress(sender);
 
-         this.ourEventLoop = transport.getServer().getServerChannelForAddress(physicalAddress, true).eventLoop();
-         if (!ourEventLoop.inEventLoop(ourThread)) {
-            throw new IllegalStateException("Event loop " + ourEventLoop + " doesn't match invoking thread " + ourThread);
+         // The loop reading the connection from the sender, which may already be replaced by a newer one
+         EventExecutor current = ThreadExecutorMap.currentExecutor();
+         if (!(current instanceof EventLoop)) {
+            throw new IllegalStateException("Messages of " + sender + " read by " + ourThread + " instead of an event loop");
          }
+         this.ourEventLoop = (EventLoop) current;
          if (tp.isTrace()) {
             log.trace("%s Creating inbound entry handler for %s", tp.addr(), physicalAddress);
          }
@@ -184,33 +487,56 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
          return this;
       }
 
+      /**
+       * Marks an async message as completed, this may be invoked from any thread
+       */
       protected void messageCompleted(Message msg) {
-         if (msg != messageBeingProcessed) {
-            log.error("%s Inconsistent message completed %s versus processing %s, this is most likely a bug!", tp.addr(), msg, messageBeingProcessed);
+         if (enqueueCompletion(msg)) {
+            drainCompletions();
          }
-         if (msg instanceof Refcountable) {
-            ((Refcountable<?>) msg).decr();
+      }
+
+      /**
+       * @return whether the completion was queued and still has to be drained, false if the message completed while
+       * it was being passed up
+       */
+      protected boolean enqueueCompletion(Message msg) {
+         MessageTracer tracer = transport.tracer();
+         if (tracer != null) {
+            tracer.completed(msg);
          }
-         if (ourEventLoop.inEventLoop()) {
-            if (running) {
-               if (tp.isTrace()) {
-                  log.trace("%s Message %s completed synchronously for sender %s", tp.addr(), msg, sender);
-               }
-               messageBeingProcessed = null;
-               return;
+         if (ourEventLoop.inEventLoop() && running && msg == messageBeingProcessed) {
+            if (tp.isTrace()) {
+               log.trace("%s Message %s completed synchronously for sender %s", tp.addr(), msg, sender);
             }
+            completedWhileRunning = true;
+            return false;
          }
-         if (tp.isTrace()) {
-            log.trace("%s Message %s completed async, dispatching next message if applicable for sender %s on thread %s",
-                  tp.addr(), msg, sender, ourThread);
+         TransportEvents.AsyncMessageCompletion event = completionEvents.isEmpty() ? null : completionEvents.remove(msg);
+         if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+               event.sender = String.valueOf(sender);
+               event.size = msg.getLength();
+               event.commit();
+            }
          }
+         completions.offer(msg);
+         return true;
+      }
 
-         // NOTE: we cannot set messageBeingProcessed to null as it was completed asynchronously, because if there is a
-         // pending read between our submission below that it enqueues the message
-
-         if (ourEventLoop.inEventLoop()) {
+      /**
+       * Drains the queued completions right away when possible, otherwise makes sure a drain is scheduled on the event
+       * loop, no matter how many completions are queued until it runs
+       */
+      protected void drainCompletions() {
+         if (ourEventLoop.inEventLoop() && !running) {
             run();
-         } else {
+         } else if (drain_scheduled == 0 && DRAIN_SCHEDULED_UPDATER.compareAndSet(this, 0, 1)) {
+            if (tp.isTrace()) {
+               log.trace("%s Scheduling drain of completed messages for sender %s on thread %s", tp.addr(), sender,
+                     ourThread);
+            }
             ourEventLoop.execute(this);
          }
       }
@@ -222,66 +548,154 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
        */
       protected boolean submitMessage(Message msg) {
          assert ourEventLoop.inEventLoop();
-         running = true;
-         // Following block is just copied from SubmitToThreadPool#SingleMessageHandler instead of allocating a new
-         // object and also because the constructor is protected
-         {
-            Address dest=msg.getDest();
-            boolean multicast=dest == null;
-            try {
-               if(tp.statsEnabled()) {
-                  MsgStats msg_stats=tp.getMessageStats();
-                  boolean oob=msg.isFlagSet(Message.Flag.OOB);
-                  if(oob)
-                     msg_stats.incrNumOOBMsgsReceived(1);
-                  else
-                     msg_stats.incrNumMsgsReceived(1);
-                  msg_stats.incrNumBytesReceived(msg.getLength());
-               }
-               TpHeader hdr=msg.getHeader(tp_id);
-               byte[] cname = hdr.getClusterName();
-               tp.passMessageUp(msg, cname, true, multicast, true);
-            }
-            catch(Throwable t) {
-               log.error(Util.getMessage("PassUpFailure"), t);
-            }
-
+         MessageTracer tracer = transport.tracer();
+         if (tracer != null) {
+            tracer.delivering(msg);
+         }
+         TransportEvents.AsyncMessageCompletion event = null;
+         if (ASYNC_COMPLETION_EVENT.isEnabled()) {
+            // Registered before passing up as the message may complete on another thread before we return
+            event = new TransportEvents.AsyncMessageCompletion();
+            event.begin();
+            completionEvents.put(msg, event);
+         }
+         if (offload_regular && virtualThreads != null) {
+            return offload(msg, tracer, event);
          }
+         messageBeingProcessed = msg;
+         completedWhileRunning = false;
+         running = true;
+         passUp(msg);
          running = false;
+         messageBeingProcessed = null;
          // Check for the presence of the async header to tell if message may be delayed
-         if (!(msg.getHeader(tp.getId()) instanceof NettyAsyncHeader)) {
+         boolean async = msg.getHeader(tp.getId()) instanceof NettyAsyncHeader;
+         if (tracer != null) {
+            tracer.delivered(msg, async);
+         }
+         if (async && !completedWhileRunning) {
+            outstanding.add(msg);
             if (tp.isTrace()) {
-               log.trace("%s Message %s assumed to complete synchronously as no header was present", tp.addr(), msg);
+               log.trace("%s Message %s not completed synchronously, must wait until it is complete later, %d " +
+                     "outstanding", tp.addr(), msg, outstanding.size());
+            }
+            return false;
+         }
+         if (!async && tp.isTrace()) {
+            log.trace("%s Message %s assumed to complete synchronously as no header was present", tp.addr(), msg);
+         }
+         if (event != null) {
+            completionEvents.remove(msg);
+         }
+         if (msg instanceof Refcountable) {
+            ((Refcountable<?>) msg).decr();
+         }
+         return true;
+      }
+
+      /**
+       * Passes the message up on a virtual thread. It counts as outstanding until its handler returned or, with a
+       * {@link NettyAsyncHeader}, until it is marked completed, so later messages of the sender wait in the batch
+       * and are released on the event loop like async messages.
+       */
+      protected boolean offload(Message msg, MessageTracer tracer, TransportEvents.AsyncMessageCompletion event) {
+         outstanding.add(msg);
+         try {
+            virtualThreads.execute(() -> {
+               passUp(msg);
+               boolean async = msg.getHeader(tp.getId()) instanceof NettyAsyncHeader;
+               if (tracer != null) {
+                  tracer.delivered(msg, async);
+               }
+               if (!async) {
+                  messageCompleted(msg);
+               }
+            });
+            return false;
+         } catch (RejectedExecutionException e) {
+            outstanding.remove(msg);
+            log.debug("%s Dropping message %s from %s, the transport is stopped", tp.addr(), msg, sender);
+            if (event != null) {
+               completionEvents.remove(msg);
             }
-            messageBeingProcessed = null;
             if (msg instanceof Refcountable) {
                ((Refcountable<?>) msg).decr();
             }
-         } else if (messageBeingProcessed != null) {
-            if (tp.isTrace()) {
-               log.trace("%s Message %s not completed synchronously, must wait until it is complete later", tp.addr(), msg);
+            return true;
+         }
+      }
+
+      // Following block is just copied from SubmitToThreadPool#SingleMessageHandler instead of allocating a new
+      // object and also because the constructor is protected
+      protected void passUp(Message msg) {
+         Address dest=msg.getDest();
+         boolean multicast=dest == null;
+         try {
+            if(tp.statsEnabled()) {
+               MsgStats msg_stats=tp.getMessageStats();
+               boolean oob=msg.isFlagSet(Message.Flag.OOB);
+               if(oob)
+                  msg_stats.incrNumOOBMsgsReceived(1);
+               else
+                  msg_stats.incrNumMsgsReceived(1);
+               msg_stats.incrNumBytesReceived(msg.getLength());
             }
-            return false;
+            TpHeader hdr=msg.getHeader(tp_id);
+            // Messages of a list sent by a bundler have no header, the cluster name of the list was matched already
+            byte[] cname = hdr != null ? hdr.getClusterName() : null;
+            tp.passMessageUp(msg, cname, hdr != null, multicast, true);
          }
-         return true;
+         catch(Throwable t) {
+            log.error(Util.getMessage("PassUpFailure"), t);
+         }
+      }
+
+      // Whether no message is being passed up, outstanding or waiting
+      protected boolean isIdle() {
+         assert ourEventLoop.inEventLoop();
+         return !running && outstanding.isEmpty() && batch.isEmpty() && completions.isEmpty();
+      }
+
+      /**
+       * Processes messages read by another event loop after the sender reconnected: they are queued on the event loop
+       * of this entry behind the ones still being delivered, and once none are left the entry is dropped, so the
+       * following messages get a new entry on the event loop of the new connection
+       */
+      protected boolean handOver(Runnable processing) {
+         ourEventLoop.execute(() -> {
+            processing.run();
+            if (isIdle()) {
+               senderTable.remove(sender, this);
+            }
+         });
+         return false;
+      }
+
+      // Whether a new message has to wait in the batch until earlier ones are done
+      protected boolean mustQueue() {
+         return running || outstanding.size() >= max_outstanding_async || !batch.isEmpty();
       }
 
       public boolean process(Message msg) {
          assert ourEventLoop.inEventLoop();
-         if (messageBeingProcessed != null) {
+         if (mustQueue()) {
             QUEUED_MSGS_UPDATER.incrementAndGet(this);
             batch.add(msg);
             notifyOnWatermarkOverflow(msg.getSrc());
             return false;
          }
          SUBMITTED_MSGS_UPDATER.incrementAndGet(this);
-         messageBeingProcessed = msg;
-         return submitMessage(msg);
+         boolean completed = submitMessage(msg);
+         if (!batch.isEmpty()) {
+            // Messages received while it was passed up
+            submitQueued();
+         }
+         return completed;
       }
 
       public boolean process(MessageBatch batch) {
          assert ourEventLoop.inEventLoop();
-         if (messageBeingProcessed != null) {
+         if (mustQueue()) {
             QUEUED_MSGS_UPDATER.addAndGet(this, batch.size());
             batch.forEach(this.batch::add);
             notifyOnWatermarkOverflow(batch.sender());
@@ -289,24 +703,25 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
          }
          int submittedAmount = 0;
          Iterator<Message> iter = batch.iterator();
-         while (iter.hasNext()) {
+         while (outstanding.size() < max_outstanding_async && iter.hasNext()) {
             Message msg = iter.next();
 
             submittedAmount++;
-            messageBeingProcessed = msg;
-            if (!submitMessage(msg)) {
-               break;
-            }
+            submitMessage(msg);
          }
          SUBMITTED_MSGS_UPDATER.addAndGet(this, submittedAmount);
          int queuedAmount = 0;
          while (iter.hasNext()) {
             Message msg = iter.next();
             queuedAmount++;
-            batch.add(msg);
+            this.batch.add(msg);
+         }
+         if (queuedAmount > 0) {
+            QUEUED_MSGS_UPDATER.addAndGet(this, queuedAmount);
+            notifyOnWatermarkOverflow(batch.sender());
+         } else if (!this.batch.isEmpty()) {
+            submitQueued();
          }
-         QUEUED_MSGS_UPDATER.addAndGet(this, queuedAmount);
-         notifyOnWatermarkOverflow(batch.sender());
          return false;
       }
 
@@ -324,6 +739,14 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
                }
                tp.down(new WatermarkOverflowEvent(sender, true));
                sentOverFlow = true;
+               TransportEvents.ReadsPaused event = new TransportEvents.ReadsPaused();
+               if (event.isEnabled()) {
+                  event.begin();
+                  event.sender = String.valueOf(sender);
+                  event.backlogBytes = batchLength;
+                  event.backlogMessages = batch.size();
+                  readsPausedEvent = event;
+               }
             }
          } else if (tp.isTrace()) {
             log.trace("%s Batch size has increased to %d messages for sender %s", tp.addr(), batch.size(), sender);
@@ -332,8 +755,8 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
 
       // unsynchronized on batch but who cares
       public String toString() {
-         return String.format("batch size=%d queued msgs=%d submitted msgs=%d",
-               batch.size(), queued_msgs, submitted_msgs);
+         return String.format("batch size=%d queued msgs=%d submitted msgs=%d outstanding=%d",
+               batch.size(), queued_msgs, submitted_msgs, outstanding.size());
       }
 
       protected long batchLength() {
@@ -348,11 +771,30 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
       @Override
       public void run() {
          assert ourEventLoop.inEventLoop();
-         assert messageBeingProcessed != null;
+         // Cleared before polling, so a completion queued after the last poll schedules a new drain
+         drain_scheduled = 0;
+         int drained = 0;
+         Message msg;
+         while ((msg = completions.poll()) != null) {
+            if (!outstanding.remove(msg)) {
+               log.warn("%s Ignoring completion of message %s from %s, which is not outstanding: it was either " +
+                     "completed already or passed up without a NettyAsyncHeader", tp.addr(), msg, sender);
+               continue;
+            }
+            drained++;
+            if (msg instanceof Refcountable) {
+               ((Refcountable<?>) msg).decr();
+            }
+         }
+         if (tp.isTrace()) {
+            log.trace("%s Drained %d completed messages for sender %s, %d outstanding", tp.addr(), drained, sender,
+                  outstanding.size());
+         }
+         submitQueued();
+      }
 
+      protected void submitQueued() {
          boolean trace = tp.isTrace();
-
-         messageBeingProcessed = null;
          if (batch.isEmpty()) {
             if (trace) {
                log.trace("%s Batch is exhausted for sender %s", tp.addr(), sender);
@@ -366,11 +808,8 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
 
          int processedAmount = 0;
          Message msg;
-         while ((msg = batch.pollFirst()) != null) {
-            messageBeingProcessed = msg;
-            if (!submitMessage(msg)) {
-               break;
-            }
+         while (outstanding.size() < max_outstanding_async && (msg = batch.pollFirst()) != null) {
+            submitMessage(msg);
             processedAmount++;
          }
          long endingLength = batchLength();
@@ -384,6 +823,11 @@ public class NonBlockingPassRegularMessagesUpDirectly extends SubmitToThreadPool
             }
             tp.down(new WatermarkOverflowEvent(sender, false));
             sentOverFlow = false;
+            TransportEvents.ReadsPaused event = readsPausedEvent;
+            if (event != null) {
+               readsPausedEvent = null;
+               event.commit();
+            }
          }
       }
    }
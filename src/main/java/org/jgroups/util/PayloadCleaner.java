@@ -0,0 +1,29 @@
+package org.jgroups.util;
+
+import java.lang.ref.Cleaner;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Releases the received payloads of regular messages once the messages are garbage collected, rather than as soon as
+ * the transport passed them up. The reliable protocols keep a regular message until the ones sent before it arrived,
+ * past the point where the transport would release it, and never tell when they drop it.
+ * <p>
+ * The payload stays in the frame it was received in, be it a pooled buffer or a memory-mapped file, which is pinned
+ * until a GC cycle finds the message and all copies of it unreachable.
+ */
+public final class PayloadCleaner {
+   private static final Cleaner CLEANER = Cleaner.create();
+
+   private PayloadCleaner() { }
+
+   /**
+    * @param owner referenced by the message and every copy of it, {@code buf} is released once it is unreachable
+    * @return a view of {@code buf} that ignores releases, as the message passes through code releasing it
+    */
+   public static ByteBuf releaseWhenUnreachable(Object owner, ByteBuf buf) {
+      CLEANER.register(owner, buf::release);
+      return Unpooled.unreleasableBuffer(buf);
+   }
+}
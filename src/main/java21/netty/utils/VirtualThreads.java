@@ -0,0 +1,23 @@
+package netty.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates executors that run each task on a virtual thread. A task that blocks unmounts its virtual thread from the
+ * carrier, so blocking handlers neither pin a platform thread nor grow a pool.
+ */
+public final class VirtualThreads {
+    private VirtualThreads() { }
+
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * @param name prefix of the names of the threads, followed by a counter
+     */
+    public static ExecutorService newExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name, 0).factory());
+    }
+}